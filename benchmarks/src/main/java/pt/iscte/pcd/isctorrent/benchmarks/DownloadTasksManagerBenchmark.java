@@ -0,0 +1,62 @@
+package pt.iscte.pcd.isctorrent.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.download.DownloadTasksManager;
+import pt.iscte.pcd.isctorrent.protocol.FileBlockRequestMessage;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+// mede a contenção na coordenação de blocos do DownloadTasksManager
+// o número de threads (nós fonte) varia com -t, ex: -Pjmh.args="-t 16"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class DownloadTasksManagerBenchmark {
+    private static final String FILE_NAME = "bench.bin";
+
+    private DownloadTasksManager manager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        manager = new DownloadTasksManager(null);
+        FileSearchResult file = new FileSearchResult(FILE_NAME, 1000L * Constants.BLOCK_SIZE,
+                Constants.LOCAL_ADDRESS, 0, "bench");
+
+        // sem fontes não há threads de download, só a FileWriterThread, que fica à espera;
+        // arranca a partir de uma thread daemon para que a writer herde esse estado
+        // e não impeça a JVM do fork de terminar
+        Thread starter = new Thread(() -> manager.startDownload(file, Collections.emptyList(),
+                System.getProperty("java.io.tmpdir")));
+        starter.setDaemon(true);
+        starter.start();
+        starter.join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    // ciclo de um worker sem rede: obtém bloco e devolve-o à fila
+    @Benchmark
+    public FileBlockRequestMessage nextAndRequeue() {
+        FileBlockRequestMessage block = manager.getNextBlock(FILE_NAME);
+        if (block != null) {
+            manager.requeueBlock(block);
+        }
+        return block;
+    }
+
+    // verificação feita pelos workers em cada iteração do ciclo de download
+    @Benchmark
+    public boolean isDownloadComplete() {
+        return manager.isDownloadComplete(FILE_NAME);
+    }
+}
@@ -0,0 +1,102 @@
+package pt.iscte.pcd.isctorrent.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.core.FileManager;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// mede leitura de blocos e pesquisa local no FileManager
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileManagerBenchmark {
+    private static final String BIG_FILE = "big.bin";
+
+    @Param({"100", "1000"})
+    public int fileCount; // número de ficheiros na pasta de trabalho
+
+    @Param({"8"})
+    public int bigFileMb; // tamanho do ficheiro usado na leitura de blocos
+
+    private Path workingDirectory;
+    private FileManager fileManager;
+    private int totalBlocks;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workingDirectory = Files.createTempDirectory("isctorrent-bench");
+        Random random = new Random(42);
+
+        // ficheiros pequenos com nomes variados para a pesquisa
+        for (int i = 0; i < fileCount; i++) {
+            String name = (i % 3 == 0 ? "music_" : i % 3 == 1 ? "video_" : "doc_") + i + ".dat";
+            writeRandomFile(new File(workingDirectory.toFile(), name), 1024, random);
+        }
+
+        long size = (long) bigFileMb * 1024 * 1024;
+        writeRandomFile(new File(workingDirectory.toFile(), BIG_FILE), size, random);
+        totalBlocks = (int) ((size + Constants.BLOCK_SIZE - 1) / Constants.BLOCK_SIZE);
+
+        fileManager = new FileManager(workingDirectory.toString(), 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(workingDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    // bloco aleatório, como acontece com vários nós a pedir partes diferentes
+    @Benchmark
+    public byte[] readFileBlockRandom() throws IOException {
+        long offset = (long) ThreadLocalRandom.current().nextInt(totalBlocks) * Constants.BLOCK_SIZE;
+        return fileManager.readFileBlock(BIG_FILE, offset, Constants.BLOCK_SIZE);
+    }
+
+    // leitura concorrente, cada thread a servir um nó diferente
+    @Benchmark
+    @Threads(4)
+    public byte[] readFileBlockContended() throws IOException {
+        long offset = (long) ThreadLocalRandom.current().nextInt(totalBlocks) * Constants.BLOCK_SIZE;
+        return fileManager.readFileBlock(BIG_FILE, offset, Constants.BLOCK_SIZE);
+    }
+
+    @Benchmark
+    public List<FileSearchResult> searchFilesSelective() {
+        return fileManager.searchFiles("music_1");
+    }
+
+    @Benchmark
+    public List<FileSearchResult> searchFilesBroad() {
+        return fileManager.searchFiles("_");
+    }
+
+    private static void writeRandomFile(File file, long size, Random random) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            long remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(chunk);
+                int length = (int) Math.min(chunk.length, remaining);
+                fos.write(chunk, 0, length);
+                remaining -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package pt.iscte.pcd.isctorrent.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.protocol.FileBlockAnswerMessage;
+import pt.iscte.pcd.isctorrent.protocol.FileBlockRequestMessage;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+import pt.iscte.pcd.isctorrent.protocol.WordSearchMessage;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// mede o custo de serializar as mensagens tal como o NodeConnection as envia
+// (writeObject + flush num ObjectOutputStream) e de as ler do outro lado
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageSerializationBenchmark {
+
+    @Param({"10", "1000"})
+    public int searchResultCount; // tamanho da resposta a uma pesquisa
+
+    private FileBlockRequestMessage blockRequest;
+    private FileBlockAnswerMessage blockAnswer;
+    private WordSearchMessage searchMessage;
+    private List<FileSearchResult> searchResults;
+
+    private byte[] encodedAnswer;
+    private byte[] encodedResults;
+
+    private ByteArrayOutputStream buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] data = new byte[Constants.BLOCK_SIZE];
+        new Random(42).nextBytes(data);
+
+        blockRequest = new FileBlockRequestMessage("video_123.dat", 42L * Constants.BLOCK_SIZE, Constants.BLOCK_SIZE);
+        blockAnswer = new FileBlockAnswerMessage(data, 42L * Constants.BLOCK_SIZE);
+        searchMessage = new WordSearchMessage("video", Constants.LOCAL_ADDRESS, 8081);
+
+        searchResults = new ArrayList<>();
+        for (int i = 0; i < searchResultCount; i++) {
+            searchResults.add(new FileSearchResult("video_" + i + ".dat", 1024L * i,
+                    Constants.LOCAL_ADDRESS, 8081, "dl1"));
+        }
+
+        buffer = new ByteArrayOutputStream(2 * Constants.BLOCK_SIZE);
+        encodedAnswer = encode(blockAnswer);
+        encodedResults = encode(searchResults);
+    }
+
+    @Benchmark
+    public byte[] writeBlockRequest() throws IOException {
+        return encode(blockRequest);
+    }
+
+    @Benchmark
+    public byte[] writeBlockAnswer() throws IOException {
+        return encode(blockAnswer);
+    }
+
+    @Benchmark
+    public byte[] writeSearch() throws IOException {
+        return encode(searchMessage);
+    }
+
+    @Benchmark
+    public byte[] writeSearchResults() throws IOException {
+        return encode(searchResults);
+    }
+
+    @Benchmark
+    public Object readBlockAnswer() throws IOException, ClassNotFoundException {
+        return decode(encodedAnswer);
+    }
+
+    @Benchmark
+    public Object readSearchResults() throws IOException, ClassNotFoundException {
+        return decode(encodedResults);
+    }
+
+    private byte[] encode(Object message) throws IOException {
+        buffer.reset();
+        try (ObjectOutputStream output = new ObjectOutputStream(buffer)) {
+            output.writeObject(message);
+            output.flush();
+        }
+        return buffer.toByteArray();
+    }
+
+    private static Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return input.readObject();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package pt.iscte.pcd.isctorrent.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.iscte.pcd.isctorrent.metrics.LatencyHistogram;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// mede o custo de registar métricas a partir de várias threads de ligação
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class MetricsBenchmark {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Benchmark
+    public void recordLatency() {
+        histogram.record(ThreadLocalRandom.current().nextLong(100_000, 100_000_000));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long readP99() {
+        return histogram.getPercentile(99);
+    }
+}
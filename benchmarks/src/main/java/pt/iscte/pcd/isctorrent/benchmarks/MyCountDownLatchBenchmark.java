@@ -0,0 +1,48 @@
+package pt.iscte.pcd.isctorrent.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.iscte.pcd.isctorrent.sync.MyCountDownLatch;
+
+import java.util.concurrent.TimeUnit;
+
+// mede o custo do MyCountDownLatch usado na coordenação das pesquisas
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MyCountDownLatchBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedLatch {
+        MyCountDownLatch latch;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            latch = new MyCountDownLatch(Integer.MAX_VALUE); // nunca chega a zero durante a medição
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Search {
+        @Param({"1", "16"})
+        public int count; // número de nós que respondem a uma pesquisa
+    }
+
+    // ciclo completo de uma pesquisa sem contenção: cria, conta e espera
+    @Benchmark
+    public boolean searchCycle(Search search) throws InterruptedException {
+        MyCountDownLatch latch = new MyCountDownLatch(search.count);
+        for (int i = 0; i < search.count; i++) {
+            latch.countDown();
+        }
+        return latch.await(1000);
+    }
+
+    // várias threads de ligação a sinalizar respostas em simultâneo
+    @Benchmark
+    @Threads(4)
+    public void contendedCountDown(SharedLatch shared) {
+        shared.latch.countDown();
+    }
+}
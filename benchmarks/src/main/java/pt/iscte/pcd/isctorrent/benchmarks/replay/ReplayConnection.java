@@ -0,0 +1,229 @@
+package pt.iscte.pcd.isctorrent.benchmarks.replay;
+
+import pt.iscte.pcd.isctorrent.network.TrafficTrace;
+import pt.iscte.pcd.isctorrent.protocol.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// repete os pedidos de uma ligação gravada contra um nó real e mede o tempo até cada resposta;
+// as respostas são associadas aos pedidos por família (blocos, pesquisas, ...), por ordem de envio
+class ReplayConnection implements Runnable {
+    private final List<TrafficTrace.Message> requests;
+    private final String host;
+    private final int port;
+    private final double speed; // 1 = ritmo original, 0 = o mais depressa possível
+    private final long traceOrigin; // instante (no trace) que corresponde ao início da repetição
+    private final long replayStart; // System.nanoTime() do início da repetição
+    private final Map<String, Deque<Long>> outstanding = new HashMap<>(); // família -> instantes de envio
+    private final Map<String, Deque<String>> types = new HashMap<>(); // família -> tipos dos pedidos pendentes
+    private final Map<Long, ByteArrayOutputStream> incomingBulk = new HashMap<>();
+    private final Map<String, List<Long>> latencies = new HashMap<>(); // tipo de pedido -> latências
+    private final Map<String, List<Long>> completions = new HashMap<>(); // tipo -> instante da resposta
+    private final Map<String, Integer> sent = new HashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private ObjectOutputStream output;
+
+    ReplayConnection(List<TrafficTrace.Message> requests, String host, int port, double speed,
+                     long traceOrigin, long replayStart) {
+        this.requests = requests;
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+        this.traceOrigin = traceOrigin;
+        this.replayStart = replayStart;
+    }
+
+    @Override
+    public void run() {
+        waitUntil(requests.get(0).timeNanos()); // a ligação abre quando abriu no trace
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.flush();
+            ObjectInputStream input = new ObjectInputStream(new CountingStream(socket.getInputStream()));
+            Thread reader = new Thread(() -> readResponses(input), "replay-reader");
+            reader.setDaemon(true);
+            reader.start();
+
+            for (TrafficTrace.Message request : requests) {
+                waitUntil(request.timeNanos());
+                Object message = request.decode();
+                String family = familyOf(message);
+                synchronized(this) {
+                    if (family != null) {
+                        outstanding.computeIfAbsent(family, k -> new ArrayDeque<>()).add(System.nanoTime());
+                        types.computeIfAbsent(family, k -> new ArrayDeque<>()).add(request.type());
+                    }
+                    sent.merge(request.type(), 1, Integer::sum);
+                }
+                send(message);
+            }
+            awaitResponses();
+        } catch (IOException e) {
+            System.err.println("Falha na repetição para " + host + ":" + port + ": " + e.getMessage());
+        }
+    }
+
+    // ritmo original (ou acelerado): espera pelo instante do pedido na escala da repetição
+    private void waitUntil(long traceTime) {
+        if (speed <= 0) return;
+        long due = replayStart + (long) ((traceTime - traceOrigin) / speed);
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void readResponses(ObjectInputStream input) {
+        try {
+            while (true) {
+                Object message = input.readObject();
+                if (message instanceof BulkFrame frame) {
+                    ByteArrayOutputStream buffer = incomingBulk.computeIfAbsent(frame.id(), id -> new ByteArrayOutputStream());
+                    buffer.write(frame.data());
+                    if (!frame.last()) continue;
+                    incomingBulk.remove(frame.id());
+                    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+                        message = in.readObject();
+                    }
+                }
+                if (message instanceof SearchQueryMessage forwarded) {
+                    // o nó reencaminha pesquisas para as ligações repetidas: responde vazio para não esperar pelo timeout
+                    send(new SearchResultPage(forwarded.queryId(), host, port, null, new String[0], new long[0], true));
+                    continue;
+                }
+                responseReceived(message);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            // ligação fechada
+        }
+    }
+
+    private synchronized void responseReceived(Object message) {
+        String family = message instanceof ChokeMessage ? oldestDataFamily() : responseFamilyOf(message);
+        if (family == null) return; // mensagens não pedidas (resumos, HAVE, ...) e páginas intermédias
+        Deque<Long> pending = outstanding.get(family);
+        if ((pending == null || pending.isEmpty()) && message instanceof BlockUnavailableMessage) {
+            family = "hashes"; // BlockUnavailable também responde a pedidos de hashes
+            pending = outstanding.get(family);
+        }
+        if (pending == null || pending.isEmpty()) return;
+
+        long now = System.nanoTime();
+        long sentAt = pending.poll();
+        String type = types.get(family).poll();
+        latencies.computeIfAbsent(type, k -> new ArrayList<>()).add(now - sentAt);
+        completions.computeIfAbsent(type, k -> new ArrayList<>()).add(now - replayStart);
+        notifyAll();
+    }
+
+    private void send(Object message) throws IOException {
+        synchronized(output) {
+            output.writeObject(message);
+            output.reset();
+            output.flush();
+        }
+    }
+
+    // espera pelas respostas em falta, até 10 s sem progresso
+    private synchronized void awaitResponses() {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            int before = pendingCount();
+            try {
+                wait(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (pendingCount() < before) deadline = System.currentTimeMillis() + 10_000;
+        }
+    }
+
+    private int pendingCount() {
+        int count = 0;
+        for (Deque<Long> pending : outstanding.values()) count += pending.size();
+        return count;
+    }
+
+    private static String familyOf(Object request) {
+        if (request instanceof FileBlockRequestMessage) return "block";
+        if (request instanceof BatchBlockRequestMessage) return "batch";
+        if (request instanceof WordSearchMessage) return "word";
+        if (request instanceof SearchQueryMessage) return "query";
+        if (request instanceof BitfieldRequest) return "bitfield";
+        if (request instanceof BlockHashesRequest) return "hashes";
+        if (request instanceof DeltaSignatureMessage) return "delta";
+        return null; // pedidos de ligação não têm resposta
+    }
+
+    // ChokeMessage responde ao pedido de dados mais antigo (o nó serve-os por ordem), seja qual for o tipo
+    private String oldestDataFamily() {
+        String oldest = null;
+        long oldestSentAt = Long.MAX_VALUE;
+        for (String family : List.of("block", "batch", "delta")) {
+            Deque<Long> pending = outstanding.get(family);
+            if (pending != null && !pending.isEmpty() && pending.peek() < oldestSentAt) {
+                oldest = family;
+                oldestSentAt = pending.peek();
+            }
+        }
+        return oldest;
+    }
+
+    private static String responseFamilyOf(Object response) {
+        if (response instanceof FileBlockAnswerMessage || response instanceof BlockUnavailableMessage) return "block";
+        if (response instanceof BatchBlockAnswerMessage) return "batch";
+        if (response instanceof List) return "word";
+        if (response instanceof SearchResultPage page) return page.last() ? "query" : null;
+        if (response instanceof BitfieldMessage) return "bitfield";
+        if (response instanceof BlockHashesMessage) return "hashes";
+        if (response instanceof DeltaMessage) return "delta";
+        return null;
+    }
+
+    synchronized Map<String, Integer> getSent() {
+        return new HashMap<>(sent);
+    }
+
+    synchronized Map<String, List<Long>> getLatencies() {
+        return new HashMap<>(latencies);
+    }
+
+    synchronized Map<String, List<Long>> getCompletions() {
+        return new HashMap<>(completions);
+    }
+
+    long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    // conta os bytes das respostas
+    private class CountingStream extends FilterInputStream {
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) bytesIn.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) bytesIn.add(read);
+            return read;
+        }
+    }
+}
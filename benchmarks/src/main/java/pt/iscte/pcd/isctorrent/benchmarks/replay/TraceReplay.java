@@ -0,0 +1,142 @@
+package pt.iscte.pcd.isctorrent.benchmarks.replay;
+
+import pt.iscte.pcd.isctorrent.benchmarks.swarm.SwarmReport;
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.network.TrafficTrace;
+
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.*;
+
+// repete contra um nó real os pedidos gravados num ou mais traces (-Disctorrent.trace=dir), ao ritmo
+// original ou acelerado, e mede a latência das respostas por tipo de pedido
+// ex: gradle :benchmarks:replay -Preplay.args="--trace=traces/trace-8080-1.isct --serve=dl1 --speed=0"
+public class TraceReplay {
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Argumento inválido: " + arg);
+                return;
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        if (!options.containsKey("trace")) {
+            System.err.println("Uso: --trace=a.isct[,b.isct] [--target=endereço:porta | --serve=pasta [--port=N]] "
+                    + "[--speed=1] [--json=ficheiro]");
+            return;
+        }
+
+        double speed = Double.parseDouble(options.getOrDefault("speed", "1"));
+        List<TrafficTrace> traces = new ArrayList<>();
+        for (String file : options.get("trace").split(",")) {
+            traces.add(TrafficTrace.read(Path.of(file)));
+        }
+
+        // nó a testar: um já em execução ou um arrancado aqui sobre uma pasta
+        IscTorrent served = null;
+        String host = "localhost";
+        int port = traces.get(0).getNodePort();
+        if (options.containsKey("serve")) {
+            port = Integer.parseInt(options.getOrDefault("port", String.valueOf(port)));
+            served = new IscTorrent(port, options.get("serve"), (Path) null);
+        } else if (options.containsKey("target")) {
+            String target = options.get("target");
+            host = target.substring(0, target.lastIndexOf(':'));
+            port = Integer.parseInt(target.substring(target.lastIndexOf(':') + 1));
+        }
+
+        // uma ligação por cada ligação gravada com pedidos recebidos pelo nó; os instantes de traces diferentes
+        // são alinhados pela hora de início de cada gravação e a repetição começa no primeiro pedido
+        long firstStart = traces.stream().mapToLong(TrafficTrace::getStartMillis).min().orElse(0);
+        Map<TrafficTrace, Long> shifts = new HashMap<>();
+        Map<TrafficTrace, Map<Integer, List<TrafficTrace.Message>>> requestsByTrace = new LinkedHashMap<>();
+        long origin = Long.MAX_VALUE;
+        for (TrafficTrace trace : traces) {
+            long shift = (trace.getStartMillis() - firstStart) * 1_000_000;
+            shifts.put(trace, shift);
+            Map<Integer, List<TrafficTrace.Message>> requests = new LinkedHashMap<>();
+            for (TrafficTrace.Message message : trace.getMessages()) {
+                if (message.inbound() && message.isReplayable()) {
+                    requests.computeIfAbsent(message.connection(), k -> new ArrayList<>()).add(message);
+                    origin = Math.min(origin, message.timeNanos() + shift);
+                }
+            }
+            requestsByTrace.put(trace, requests);
+        }
+
+        List<ReplayConnection> connections = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        long replayStart = System.nanoTime();
+        for (Map.Entry<TrafficTrace, Map<Integer, List<TrafficTrace.Message>>> entry : requestsByTrace.entrySet()) {
+            long traceOrigin = origin - shifts.get(entry.getKey());
+            for (Map.Entry<Integer, List<TrafficTrace.Message>> requests : entry.getValue().entrySet()) {
+                ReplayConnection replay = new ReplayConnection(requests.getValue(), host, port, speed,
+                        traceOrigin, replayStart);
+                connections.add(replay);
+                Thread thread = new Thread(replay, "replay-" + entry.getKey().getNodePort() + "-" + requests.getKey());
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - replayStart;
+
+        List<SwarmReport> reports = report(connections, elapsed);
+        System.out.println("Repetidas " + connections.size() + " ligações contra " + host + ":" + port);
+        reports.forEach(System.out::println);
+        if (options.containsKey("json")) {
+            try (PrintWriter writer = new PrintWriter(options.get("json"))) {
+                writer.println("[");
+                for (int i = 0; i < reports.size(); i++) {
+                    writer.println("  " + reports.get(i).toJson() + (i < reports.size() - 1 ? "," : ""));
+                }
+                writer.println("]");
+            }
+        }
+        if (served != null) served.shutdown();
+        System.exit(0);
+    }
+
+    // um relatório por tipo de pedido, mais o total; os bytes são os das respostas, contados só no total
+    private static List<SwarmReport> report(List<ReplayConnection> connections, long elapsed) {
+        Map<String, Integer> sent = new TreeMap<>();
+        Map<String, List<Long>> latencies = new HashMap<>();
+        Map<String, List<Long>> completions = new HashMap<>();
+        long bytes = 0;
+        for (ReplayConnection connection : connections) {
+            connection.getSent().forEach((type, count) -> sent.merge(type, count, Integer::sum));
+            connection.getLatencies().forEach((type, values) ->
+                    latencies.computeIfAbsent(type, k -> new ArrayList<>()).addAll(values));
+            connection.getCompletions().forEach((type, values) ->
+                    completions.computeIfAbsent(type, k -> new ArrayList<>()).addAll(values));
+            bytes += connection.getBytesIn();
+        }
+
+        List<SwarmReport> reports = new ArrayList<>();
+        int totalSent = 0;
+        List<Long> allLatencies = new ArrayList<>();
+        List<Long> allCompletions = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : sent.entrySet()) {
+            List<Long> typeLatencies = latencies.getOrDefault(entry.getKey(), List.of());
+            if (typeLatencies.isEmpty() && entry.getKey().endsWith("Request") && entry.getKey().startsWith("New")) {
+                continue; // pedidos de ligação não têm resposta
+            }
+            List<Long> typeCompletions = completions.getOrDefault(entry.getKey(), List.of());
+            reports.add(new SwarmReport("replay " + entry.getKey(), entry.getValue(), typeLatencies.size(), 0,
+                    elapsed, toArray(typeLatencies), toArray(typeCompletions)));
+            totalSent += entry.getValue();
+            allLatencies.addAll(typeLatencies);
+            allCompletions.addAll(typeCompletions);
+        }
+        reports.add(new SwarmReport("replay total", totalSent, allLatencies.size(), bytes, elapsed,
+                toArray(allLatencies), toArray(allCompletions)));
+        return reports;
+    }
+
+    private static long[] toArray(List<Long> values) {
+        return values.stream().mapToLong(Long::longValue).toArray();
+    }
+}
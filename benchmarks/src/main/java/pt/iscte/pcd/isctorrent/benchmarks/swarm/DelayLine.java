@@ -0,0 +1,99 @@
+package pt.iscte.pcd.isctorrent.benchmarks.swarm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+// fila de bytes entregue ao destino com atraso fixo e limite de débito
+class DelayLine implements Runnable {
+    private static final int MAX_QUEUED_BYTES = 256 * 1024; // simula o buffer do socket
+
+    private record Chunk(byte[] data, long dueNanos) {}
+
+    private final LinkedList<Chunk> queue = new LinkedList<>();
+    private final OutputStream sink;
+    private final long latencyNanos;
+    private final long bytesPerSecond;
+    private int queuedBytes = 0;
+    private boolean closed = false;
+    private long nextFreeNanos = 0; // instante em que a ligação fica livre (limite de débito)
+
+    DelayLine(OutputStream sink, LinkProfile profile) {
+        this.sink = sink;
+        this.latencyNanos = profile.latencyMs() * 1_000_000L;
+        this.bytesPerSecond = profile.bytesPerSecond();
+    }
+
+    // coloca bytes na linha, bloqueia se o buffer simulado estiver cheio
+    synchronized void offer(byte[] buffer, int offset, int length) throws IOException {
+        try {
+            while (!closed && queuedBytes > 0 && queuedBytes + length > MAX_QUEUED_BYTES) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        if (closed) throw new IOException("Ligação fechada");
+
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, offset, copy, 0, length);
+        queue.addLast(new Chunk(copy, System.nanoTime() + latencyNanos));
+        queuedBytes += length;
+        notifyAll();
+    }
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized Chunk take() throws InterruptedException {
+        while (!closed && queue.isEmpty()) {
+            wait();
+        }
+        return closed ? null : queue.removeFirst();
+    }
+
+    private synchronized void release(int length) {
+        queuedBytes -= length;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        try {
+            Chunk chunk;
+            while ((chunk = take()) != null) {
+                long start = Math.max(chunk.dueNanos(), nextFreeNanos);
+                if (bytesPerSecond > 0) {
+                    nextFreeNanos = Math.max(start, System.nanoTime())
+                            + chunk.data().length * 1_000_000_000L / bytesPerSecond;
+                    start = nextFreeNanos; // só entrega quando os bytes "chegaram"
+                }
+                sleepUntil(start);
+
+                sink.write(chunk.data());
+                sink.flush();
+                release(chunk.data().length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            close(); // destino fechado
+        } finally {
+            try {
+                sink.close();
+            } catch (IOException ignored) {
+                // já fechado
+            }
+        }
+    }
+
+    private static void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package pt.iscte.pcd.isctorrent.benchmarks.swarm;
+
+// características simuladas de uma ligação entre dois nós
+// latencyMs: atraso num sentido; bytesPerSecond: 0 = sem limite;
+// dropProbability: probabilidade de a ligação cair em cada escrita
+public record LinkProfile(long latencyMs, long bytesPerSecond, double dropProbability) {
+    public static final LinkProfile NONE = new LinkProfile(0, 0, 0);
+
+    public boolean isTransparent() {
+        return latencyMs == 0 && bytesPerSecond == 0 && dropProbability == 0;
+    }
+}
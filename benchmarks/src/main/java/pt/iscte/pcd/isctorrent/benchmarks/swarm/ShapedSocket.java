@@ -0,0 +1,103 @@
+package pt.iscte.pcd.isctorrent.benchmarks.swarm;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+// socket de saída com latência, limite de débito e quedas simuladas nos dois sentidos
+class ShapedSocket extends Socket {
+    private static final int PIPE_SIZE = 256 * 1024;
+
+    private final LinkProfile profile;
+    private DelayLine outgoing;
+    private DelayLine incoming;
+    private InputStream shapedInput;
+    private OutputStream shapedOutput;
+
+    ShapedSocket(String host, int port, LinkProfile profile) throws IOException {
+        super(host, port);
+        this.profile = profile;
+        setTcpNoDelay(true);
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (shapedOutput == null) {
+            outgoing = new DelayLine(super.getOutputStream(), profile);
+            startDaemon(outgoing, "link-out-" + getPort());
+            shapedOutput = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    maybeDrop();
+                    outgoing.offer(b, off, len);
+                }
+            };
+        }
+        return shapedOutput;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (shapedInput == null) {
+            PipedInputStream pipeIn = new PipedInputStream(PIPE_SIZE);
+            PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+            incoming = new DelayLine(pipeOut, profile);
+            InputStream raw = super.getInputStream();
+
+            // lê do socket real e passa pela linha de atraso até ao pipe
+            startDaemon(() -> {
+                byte[] buffer = new byte[16 * 1024];
+                try {
+                    int read;
+                    while ((read = readIgnoringTimeout(raw, buffer)) != -1) {
+                        incoming.offer(buffer, 0, read);
+                    }
+                } catch (IOException ignored) {
+                    // ligação terminada
+                }
+                incoming.close();
+            }, "link-reader-" + getPort());
+            startDaemon(incoming, "link-in-" + getPort());
+            shapedInput = pipeIn;
+        }
+        return shapedInput;
+    }
+
+    // o timeout do nó (ex.: à espera da resposta ao pedido de ligação) é para quem lê do pipe:
+    // esta thread lê sempre do socket e não pode terminar só porque a ligação ficou parada
+    private static int readIgnoringTimeout(InputStream raw, byte[] buffer) throws IOException {
+        while (true) {
+            try {
+                return raw.read(buffer);
+            } catch (SocketTimeoutException e) {
+                // continua à espera
+            }
+        }
+    }
+
+    private void maybeDrop() throws IOException {
+        if (profile.dropProbability() > 0 && ThreadLocalRandom.current().nextDouble() < profile.dropProbability()) {
+            close();
+            throw new IOException("Ligação descartada (simulação)");
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (outgoing != null) outgoing.close();
+        if (incoming != null) incoming.close();
+        super.close();
+    }
+
+    private static void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,58 @@
+package pt.iscte.pcd.isctorrent.benchmarks.swarm;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// fábrica de sockets de um nó: aplica o perfil da ligação conforme a porta de destino
+class ShapedSocketFactory extends SocketFactory {
+    private final Map<Integer, LinkProfile> profilesByPort = new ConcurrentHashMap<>();
+    private final Map<Integer, Socket> openSockets = new ConcurrentHashMap<>();
+    private volatile LinkProfile defaultProfile;
+
+    ShapedSocketFactory(LinkProfile defaultProfile) {
+        this.defaultProfile = defaultProfile;
+    }
+
+    void setProfile(int remotePort, LinkProfile profile) {
+        profilesByPort.put(remotePort, profile);
+    }
+
+    void setDefaultProfile(LinkProfile profile) {
+        this.defaultProfile = profile;
+    }
+
+    // fecha a ligação para o nó indicado, como se a rede tivesse caído
+    boolean drop(int remotePort) throws IOException {
+        Socket socket = openSockets.remove(remotePort);
+        if (socket == null) return false;
+        socket.close();
+        return true;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        LinkProfile profile = profilesByPort.getOrDefault(port, defaultProfile);
+        Socket socket = profile.isTransparent() ? new Socket(host, port) : new ShapedSocket(host, port, profile);
+        openSockets.put(port, socket);
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return createSocket(host.getHostAddress(), port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return createSocket(address.getHostAddress(), port);
+    }
+}
@@ -0,0 +1,313 @@
+package pt.iscte.pcd.isctorrent.benchmarks.swarm;
+
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.core.TorrentListener;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+import pt.iscte.pcd.isctorrent.sync.MyCountDownLatch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+// arranca N nós IscTorrent na mesma JVM em portas de loopback e mede cargas de download e pesquisa
+public class SwarmHarness implements AutoCloseable {
+    private static final long CONNECT_TIMEOUT_MS = 10_000;
+
+    // um nó do enxame e os eventos que recebe
+    private class Peer implements TorrentListener {
+        final int index;
+        final int port;
+        final Path directory;
+        final ShapedSocketFactory socketFactory;
+        final Map<String, List<FileSearchResult>> searchResults = new HashMap<>();
+        final Map<String, Long> downloadStarts = new HashMap<>();
+        IscTorrent torrent;
+        volatile MyCountDownLatch downloads;
+
+        Peer(int index, int port, Path directory, LinkProfile profile) {
+            this.index = index;
+            this.port = port;
+            this.directory = directory;
+            this.socketFactory = new ShapedSocketFactory(profile);
+        }
+
+        @Override
+        public void onConnectionsChanged() {
+        }
+
+        @Override
+        public void onSearchResults(List<FileSearchResult> results) {
+            synchronized (searchResults) {
+                for (FileSearchResult result : results) {
+                    if (result.nodePort() != port) { // ignora resultados locais
+                        searchResults.computeIfAbsent(result.fileName(), k -> new ArrayList<>()).add(result);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onBlockReceived(String fileName, String node, int length, long latencyNanos) {
+            recordBlock(latencyNanos);
+        }
+
+        @Override
+        public void onDownloadComplete(String fileName, Map<String, Integer> blocksPerNode, long elapsedTime) {
+            Long start;
+            synchronized (downloadStarts) {
+                start = downloadStarts.remove(fileName);
+            }
+            if (start != null) {
+                recordCompletion(System.nanoTime() - start, new File(directory.toFile(), fileName).length());
+            }
+            MyCountDownLatch latch = downloads;
+            if (latch != null) latch.countDown();
+        }
+
+        @Override
+        public void onError(String title, String message) {
+        }
+    }
+
+    private final List<Peer> peers = new ArrayList<>();
+    private final Random random;
+
+    // amostras da carga em curso
+    private final List<Long> blockLatencies = new ArrayList<>();
+    private final List<Long> completions = new ArrayList<>();
+    private long completedBytes = 0;
+
+    public SwarmHarness(int peerCount, LinkProfile profile, long seed) throws IOException {
+        this.random = new Random(seed);
+        for (int i = 0; i < peerCount; i++) {
+            Path directory = Files.createTempDirectory("isctorrent-peer" + i + "-");
+            peers.add(new Peer(i, freePort(), directory, profile));
+        }
+    }
+
+    // escreve um ficheiro aleatório na pasta do nó; tem de ser chamado antes de start()
+    public void seed(int peer, String fileName, long size) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        try (FileOutputStream fos = new FileOutputStream(new File(peers.get(peer).directory.toFile(), fileName))) {
+            long remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(chunk);
+                int length = (int) Math.min(chunk.length, remaining);
+                fos.write(chunk, 0, length);
+                remaining -= length;
+            }
+        }
+    }
+
+    // arranca os nós (o FileManager lê a pasta de trabalho no arranque)
+    public void start() {
+        for (Peer peer : peers) {
+            peer.torrent = new IscTorrent(peer.port, peer.directory.toString(), peer.socketFactory);
+            peer.torrent.addListener(peer);
+        }
+    }
+
+    public void setLinkProfile(int from, int to, LinkProfile profile) {
+        peers.get(from).socketFactory.setProfile(peers.get(to).port, profile);
+    }
+
+    // derruba a ligação aberta por "from" para "to"
+    public boolean dropLink(int from, int to) throws IOException {
+        return peers.get(from).socketFactory.drop(peers.get(to).port);
+    }
+
+    // liga os nós segundo a topologia e espera que todas as ligações estejam ativas
+    public void connect(Topology topology) throws InterruptedException {
+        int[] degree = new int[peers.size()];
+        for (int[] link : topology.links(peers.size(), random)) {
+            peers.get(link[0]).torrent.connectToNode("127.0.0.1", peers.get(link[1]).port);
+            degree[link[0]]++;
+            degree[link[1]]++;
+        }
+
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        for (Peer peer : peers) {
+            while (peer.torrent.getConnectionManager().getActiveConnectionsCount() < degree[peer.index]) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Timeout ao ligar o nó " + peer.index);
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    // cada nó descarregador procura a palavra-chave e transfere todos os ficheiros remotos encontrados
+    public SwarmReport runDownloads(List<Integer> downloaders, String keyword, long timeoutMs)
+            throws InterruptedException {
+        resetSamples();
+        int[] requested = new int[1];
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int index : downloaders) {
+            Peer peer = peers.get(index);
+            Thread thread = new Thread(() -> {
+                synchronized (peer.searchResults) {
+                    peer.searchResults.clear();
+                }
+                peer.torrent.searchFiles(keyword);
+
+                Map<String, List<FileSearchResult>> files;
+                synchronized (peer.searchResults) {
+                    files = new HashMap<>(peer.searchResults);
+                }
+                synchronized (requested) {
+                    requested[0] += files.size();
+                }
+
+                peer.downloads = new MyCountDownLatch(files.size());
+                for (Map.Entry<String, List<FileSearchResult>> file : files.entrySet()) {
+                    synchronized (peer.downloadStarts) {
+                        peer.downloadStarts.put(file.getKey(), System.nanoTime());
+                    }
+                    peer.torrent.startDownloadFromMultipleNodes(file.getValue());
+                }
+                try {
+                    peer.downloads.await(timeoutMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "swarm-download-" + index);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return buildReport("download", requested[0], System.nanoTime() - start);
+    }
+
+    // cada nó faz "searches" pesquisas seguidas, todos os nós em paralelo
+    public SwarmReport runSearches(String keyword, int searches) throws InterruptedException {
+        resetSamples();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (Peer peer : peers) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < searches; i++) {
+                    long searchStart = System.nanoTime();
+                    peer.torrent.searchFiles(keyword);
+                    recordSearch(System.nanoTime() - searchStart);
+                }
+            }, "swarm-search-" + peer.index);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return buildReport("search", peers.size() * searches, System.nanoTime() - start);
+    }
+
+    private synchronized void resetSamples() {
+        blockLatencies.clear();
+        completions.clear();
+        completedBytes = 0;
+    }
+
+    private synchronized void recordBlock(long latencyNanos) {
+        blockLatencies.add(latencyNanos);
+    }
+
+    private synchronized void recordCompletion(long elapsedNanos, long bytes) {
+        completions.add(elapsedNanos);
+        completedBytes += bytes;
+    }
+
+    private synchronized void recordSearch(long elapsedNanos) {
+        blockLatencies.add(elapsedNanos);
+        completions.add(elapsedNanos);
+    }
+
+    private synchronized SwarmReport buildReport(String workload, int requested, long elapsedNanos) {
+        long[] latencies = blockLatencies.stream().mapToLong(Long::longValue).toArray();
+        long[] completed = completions.stream().mapToLong(Long::longValue).toArray();
+        return new SwarmReport(workload, requested, completed.length, completedBytes, elapsedNanos,
+                latencies, completed);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Peer peer : peers) {
+            if (peer.torrent != null) peer.torrent.shutdown();
+        }
+        for (Peer peer : peers) {
+            try (Stream<Path> paths = Files.walk(peer.directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // ex: --peers=8 --topology=star --seeders=1 --files=4 --file-size=1048576
+    //     --latency-ms=20 --bandwidth=1048576 --drop=0 --searches=20 --timeout-s=60 --json=out.json
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Argumento inválido: " + arg);
+                return;
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        int peerCount = Integer.parseInt(options.getOrDefault("peers", "4"));
+        Topology topology = Topology.valueOf(options.getOrDefault("topology", "star").toUpperCase());
+        int seeders = Integer.parseInt(options.getOrDefault("seeders", "1"));
+        int files = Integer.parseInt(options.getOrDefault("files", "2"));
+        long fileSize = Long.parseLong(options.getOrDefault("file-size", "1048576"));
+        LinkProfile profile = new LinkProfile(
+                Long.parseLong(options.getOrDefault("latency-ms", "0")),
+                Long.parseLong(options.getOrDefault("bandwidth", "0")),
+                Double.parseDouble(options.getOrDefault("drop", "0")));
+        int searches = Integer.parseInt(options.getOrDefault("searches", "10"));
+        long timeoutMs = Long.parseLong(options.getOrDefault("timeout-s", "60")) * 1000;
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+
+        List<SwarmReport> reports = new ArrayList<>();
+        try (SwarmHarness harness = new SwarmHarness(peerCount, profile, seed)) {
+            for (int s = 0; s < seeders; s++) {
+                for (int f = 0; f < files; f++) {
+                    harness.seed(s, "seed_" + f + ".bin", fileSize);
+                }
+            }
+            harness.start();
+            harness.connect(topology);
+
+            List<Integer> downloaders = new ArrayList<>();
+            for (int i = seeders; i < peerCount; i++) downloaders.add(i);
+
+            reports.add(harness.runSearches("seed_", searches));
+            reports.add(harness.runDownloads(downloaders, "seed_", timeoutMs));
+        }
+
+        reports.forEach(System.out::println);
+        if (options.containsKey("json")) {
+            try (PrintWriter writer = new PrintWriter(options.get("json"))) {
+                writer.println("[");
+                for (int i = 0; i < reports.size(); i++) {
+                    writer.println("  " + reports.get(i).toJson() + (i < reports.size() - 1 ? "," : ""));
+                }
+                writer.println("]");
+            }
+        }
+        System.exit(0); // threads de download bloqueadas em ligações caídas não impedem a saída
+    }
+}
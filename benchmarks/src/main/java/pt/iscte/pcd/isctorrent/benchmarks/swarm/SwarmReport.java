@@ -0,0 +1,55 @@
+package pt.iscte.pcd.isctorrent.benchmarks.swarm;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// resultado de uma carga executada pelo SwarmHarness
+public record SwarmReport(String workload, int requested, int completed, long bytes, long elapsedNanos,
+                          long[] latenciesNanos, long[] completionNanos) {
+
+    public SwarmReport {
+        latenciesNanos = latenciesNanos.clone();
+        completionNanos = completionNanos.clone();
+        Arrays.sort(latenciesNanos);
+        Arrays.sort(completionNanos);
+    }
+
+    public double throughputMbPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytes / (elapsedNanos / 1e9) / (1024 * 1024);
+    }
+
+    // percentil sobre as latências ordenadas, em milissegundos
+    public double latencyPercentileMs(double percentile) {
+        return percentile(latenciesNanos, percentile);
+    }
+
+    public double completionPercentileMs(double percentile) {
+        return percentile(completionNanos, percentile);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "%s: %d/%d concluídos em %.1f ms, %.2f MB/s, latência p50=%.2f ms p99=%.2f ms (n=%d), "
+                        + "conclusão p50=%.1f ms p99=%.1f ms",
+                workload, completed, requested, elapsedNanos / 1e6, throughputMbPerSecond(),
+                latencyPercentileMs(50), latencyPercentileMs(99), latenciesNanos.length,
+                completionPercentileMs(50), completionPercentileMs(99));
+    }
+
+    public String toJson() {
+        return String.format(Locale.ROOT,
+                "{\"workload\":\"%s\",\"requested\":%d,\"completed\":%d,\"bytes\":%d,\"elapsedMs\":%.3f,"
+                        + "\"throughputMBps\":%.3f,\"latencySamples\":%d,\"latencyP50Ms\":%.3f,\"latencyP99Ms\":%.3f,"
+                        + "\"completionP50Ms\":%.3f,\"completionP99Ms\":%.3f}",
+                workload, requested, completed, bytes, elapsedNanos / 1e6, throughputMbPerSecond(),
+                latenciesNanos.length, latencyPercentileMs(50), latencyPercentileMs(99),
+                completionPercentileMs(50), completionPercentileMs(99));
+    }
+}
@@ -0,0 +1,51 @@
+package pt.iscte.pcd.isctorrent.benchmarks.swarm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// formas de ligar os nós; cada ligação é {origem, destino}, a origem é quem liga
+public enum Topology {
+    MESH, STAR, RING, LINE, RANDOM;
+
+    private static final int RANDOM_DEGREE = 3;
+
+    public List<int[]> links(int peers, Random random) {
+        List<int[]> links = new ArrayList<>();
+        switch (this) {
+            case MESH -> {
+                for (int i = 0; i < peers; i++)
+                    for (int j = 0; j < i; j++)
+                        links.add(new int[]{i, j});
+            }
+            case STAR -> {
+                for (int i = 1; i < peers; i++) links.add(new int[]{i, 0});
+            }
+            case LINE -> {
+                for (int i = 1; i < peers; i++) links.add(new int[]{i, i - 1});
+            }
+            case RING -> {
+                for (int i = 1; i < peers; i++) links.add(new int[]{i, i - 1});
+                if (peers > 2) links.add(new int[]{0, peers - 1});
+            }
+            case RANDOM -> {
+                // linha para garantir conectividade e ligações extra aleatórias
+                boolean[][] linked = new boolean[peers][peers];
+                for (int i = 1; i < peers; i++) {
+                    links.add(new int[]{i, i - 1});
+                    linked[i][i - 1] = linked[i - 1][i] = true;
+                }
+                for (int i = 0; i < peers; i++) {
+                    for (int k = 1; k < RANDOM_DEGREE && peers > RANDOM_DEGREE; k++) {
+                        int j = random.nextInt(peers);
+                        if (j != i && !linked[i][j]) {
+                            links.add(new int[]{i, j});
+                            linked[i][j] = linked[j][i] = true;
+                        }
+                    }
+                }
+            }
+        }
+        return links;
+    }
+}
@@ -1,14 +1,25 @@
 package pt.iscte.pcd.isctorrent;
 
+import pt.iscte.pcd.isctorrent.cli.HeadlessConsole;
 import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.gui.GUI;
 
 import javax.swing.*;
+import java.nio.file.Path;
 
 public class Main {
+    private static final String HEADLESS_FLAG = "--headless";
+
     public static void main(String[] args) {
         // verifica argumentos
-        if (args.length != 2) {
-            System.out.println("Uso: java IscTorrent <porta> <diretório_trabalho>");
+        boolean headless = args.length == 3 && HEADLESS_FLAG.equals(args[2]);
+        if (args.length != 2 && !headless) {
+            System.out.println("Uso: java IscTorrent <porta> <diretório_trabalho> [" + HEADLESS_FLAG + "]");
+            return;
+        }
+
+        if (headless) {
+            startHeadless(args);
             return;
         }
 
@@ -17,7 +28,9 @@ public class Main {
                 int port = Integer.parseInt(args[0]); // primeiro argumento: porta
                 String workingDirectory = args[1]; // segundo argumento: pasta de trabalho
 
-                IscTorrent torrent = new IscTorrent(port, workingDirectory);
+                IscTorrent torrent = new IscTorrent(port, workingDirectory, peersFile(port));
+                new GUI(torrent, port);
+                torrent.reconnectKnownPeers();
 
                 // garante encerramento limpo quando aplicação termina
                 Runtime.getRuntime().addShutdownHook(new Thread(torrent::shutdown));
@@ -31,4 +44,28 @@ public class Main {
             }
         });
     }
-}
\ No newline at end of file
+
+    // nós conhecidos, fora da pasta de trabalho para não serem partilhados (um ficheiro por porta)
+    private static Path peersFile(int port) {
+        String configured = System.getProperty("isctorrent.peersFile");
+        if (configured != null) return Path.of(configured);
+        return Path.of(System.getProperty("user.home"), ".isctorrent", "peers-" + port);
+    }
+
+    // arranque sem Swing: consola em stdin/stdout, sem inicializar o AWT
+    private static void startHeadless(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        try {
+            int port = Integer.parseInt(args[0]);
+            IscTorrent torrent = new IscTorrent(port, args[1], peersFile(port));
+            Runtime.getRuntime().addShutdownHook(new Thread(torrent::shutdown));
+            torrent.reconnectKnownPeers();
+
+            Thread console = new Thread(new HeadlessConsole(torrent, System.in, System.out), "console");
+            console.setDaemon(true); // o nó continua ativo mesmo sem stdin
+            console.start();
+        } catch (NumberFormatException e) {
+            System.err.println("Erro: A porta deve ser um número válido");
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package pt.iscte.pcd.isctorrent.cli;
+
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.core.TorrentListener;
+import pt.iscte.pcd.isctorrent.download.DownloadProgress;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+import pt.iscte.pcd.isctorrent.protocol.SearchQuery;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// interface de linha de comandos para correr o nó sem Swing (ex: servidores seed)
+public class HeadlessConsole implements TorrentListener, Runnable {
+    private final IscTorrent torrent;
+    private final BufferedReader input;
+    private final PrintStream out;
+    private final Map<String, List<FileSearchResult>> lastResults; // resultados agrupados por nome
+    private final Map<String, DownloadProgress> downloads = new LinkedHashMap<>(); // último estado de cada download
+    private volatile long currentSearch = NO_SEARCH; // pesquisa cujos resultados estão em lastResults
+
+    public HeadlessConsole(IscTorrent torrent, InputStream in, PrintStream out) {
+        this.torrent = torrent;
+        this.input = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        this.out = out;
+        this.lastResults = new LinkedHashMap<>();
+        torrent.addListener(this);
+    }
+
+    // lê comandos até ao fim da entrada; o nó continua a servir ficheiros depois disso
+    @Override
+    public void run() {
+        out.println("IscTorrent em modo headless. Escreva 'ajuda' para ver os comandos.");
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (!handleCommand(line.trim())) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Erro na leitura de comandos: " + e.getMessage());
+        }
+    }
+
+    // processa um comando, devolve false para terminar
+    private boolean handleCommand(String line) {
+        if (line.isEmpty()) return true;
+        String[] parts = line.split("\\s+", 2);
+        String argument = parts.length > 1 ? parts[1].trim() : "";
+
+        switch (parts[0].toLowerCase()) {
+            case "conectar" -> connect(argument);
+            case "procurar" -> search(argument);
+            case "transferir" -> download(argument);
+            case "conexoes" -> torrent.getConnectionManager().getConnectionsList().forEach(out::println);
+            case "transferencias" -> printDownloads();
+            case "ajuda" -> printHelp();
+            case "sair" -> {
+                System.exit(0); // shutdown hook encerra o nó
+                return false;
+            }
+            default -> out.println("Comando desconhecido: " + parts[0]);
+        }
+        return true;
+    }
+
+    private void connect(String argument) {
+        String[] parts = argument.split("\\s+");
+        if (parts.length != 2) {
+            out.println("Uso: conectar <endereço> <porta>");
+            return;
+        }
+        try {
+            torrent.connectToNodeAsync(parts[0], Integer.parseInt(parts[1])); // erros chegam por onError
+        } catch (NumberFormatException e) {
+            out.println("Porta inválida");
+        }
+    }
+
+    private void search(String keyword) {
+        if (keyword.isEmpty()) {
+            out.println("Uso: procurar <pesquisa>");
+            return;
+        }
+        synchronized (lastResults) {
+            currentSearch = NO_SEARCH; // até a nova pesquisa começar
+            lastResults.clear(); // limpa resultados anteriores
+        }
+        torrent.searchFiles(keyword); // bloqueia até todas as respostas ou timeout
+    }
+
+    private void download(String fileName) {
+        if (fileName.equals("*")) { // todos os resultados, os pequenos em lote
+            List<List<FileSearchResult>> files = new ArrayList<>();
+            synchronized (lastResults) {
+                for (List<FileSearchResult> group : lastResults.values()) {
+                    files.add(new ArrayList<>(group));
+                }
+            }
+            torrent.startDownloads(files);
+            return;
+        }
+        List<FileSearchResult> results;
+        synchronized (lastResults) {
+            results = lastResults.get(fileName);
+        }
+        if (results == null) {
+            out.println("Ficheiro não encontrado na última pesquisa: " + fileName);
+            return;
+        }
+        torrent.startDownloadFromMultipleNodes(new ArrayList<>(results));
+    }
+
+    private void printHelp() {
+        out.println("conectar <endereço> <porta>  liga a outro nó");
+        out.println("procurar <pesquisa>          pesquisa ficheiros nos nós ligados");
+        out.println("  palavras soltas procuram no nome; filtros: prefix:<p> glob:<*.mp3> re:<regex>");
+        out.println("  ext:<mp3,ogg> min:<10K> max:<5M> limit:<N> (por omissão " + SearchQuery.DEFAULT_LIMIT + ")");
+        out.println("transferir <ficheiro>        descarrega um ficheiro da última pesquisa");
+        out.println("transferir *                 descarrega todos os ficheiros da última pesquisa");
+        out.println("conexoes                     lista as conexões ativas");
+        out.println("transferencias               mostra o progresso dos downloads em curso");
+        out.println("sair                         termina o nó");
+    }
+
+    @Override
+    public void onConnectionsChanged() {
+        out.println("Conexões ativas: " + torrent.getConnectionManager().getActiveConnectionsCount());
+    }
+
+    @Override
+    public void onSearchStarted(long searchId) {
+        currentSearch = searchId;
+    }
+
+    @Override
+    public void onSearchResults(long searchId, List<FileSearchResult> results) {
+        if (searchId == currentSearch) { // páginas tardias de pesquisas anteriores não contam
+            onSearchResults(results);
+        }
+    }
+
+    @Override
+    public void onSearchResults(List<FileSearchResult> results) {
+        // os resultados chegam em páginas: só mostra as entradas desta página, não a lista acumulada
+        List<String> lines = new ArrayList<>(results.size());
+        synchronized (lastResults) {
+            for (FileSearchResult result : results) {
+                List<FileSearchResult> group = lastResults.computeIfAbsent(result.fileName(), k -> new ArrayList<>());
+                group.add(result);
+                // formato: nome (tamanho) (X nodes), igual à GUI, com o nó que respondeu
+                lines.add(String.format("%s (%d bytes) (%d nodes) em %s:%d", result.fileName(), result.fileSize(),
+                        group.size(), result.nodeAddress(), result.nodePort()));
+            }
+        }
+        lines.forEach(out::println); // escreve fora do lock
+    }
+
+    private void printDownloads() {
+        synchronized (downloads) {
+            if (downloads.isEmpty()) {
+                out.println("Nenhum download em curso");
+            }
+            for (DownloadProgress progress : downloads.values()) {
+                out.println(progress);
+                for (DownloadProgress.PeerProgress peer : progress.peers()) {
+                    out.printf(Locale.ROOT, "  %s: %d bytes, %.1f KB/s%s%n", peer.node(), peer.receivedBytes(),
+                            peer.bytesPerSecond() / 1024, peer.stalled() ? " (parada)" : "");
+                }
+            }
+        }
+    }
+
+    // o progresso só aparece com o comando transferencias; aqui só se avisa quando um download para
+    @Override
+    public void onDownloadProgress(DownloadProgress progress) {
+        synchronized (downloads) {
+            DownloadProgress previous = progress.complete()
+                    ? downloads.remove(progress.fileName()) : downloads.put(progress.fileName(), progress);
+            if (progress.stalled() && (previous == null || !previous.stalled())) {
+                out.println("Download parado: " + progress.fileName() + " (sem blocos há "
+                        + Constants.PROGRESS_STALL_MS / 1000 + "s)");
+            }
+        }
+    }
+
+    @Override
+    public void onDownloadComplete(String fileName, Map<String, Integer> blocksPerNode, long elapsedTime) {
+        out.println("Descarga completa: " + fileName);
+        for (Map.Entry<String, Integer> entry : blocksPerNode.entrySet()) {
+            out.println("Fornecedor [endereco=" + entry.getKey() + "]: " + entry.getValue());
+        }
+        out.println("Tempo decorrido: " + (elapsedTime / 1000) + "s");
+    }
+
+    @Override
+    public void onError(String title, String message) {
+        out.println(title + ": " + message);
+    }
+}
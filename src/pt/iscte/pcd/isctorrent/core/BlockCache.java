@@ -0,0 +1,164 @@
+package pt.iscte.pcd.isctorrent.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// cache de blocos lidos do disco, fora do heap e limitado em bytes, com LRU segmentado:
+// blocos novos entram em período de experiência e só passam à zona protegida se forem pedidos outra vez,
+// por isso uma leitura única de um ficheiro grande não expulsa os blocos populares
+public class BlockCache {
+    private static final double PROTECTED_SHARE = 0.8;
+
+    record Key(String fileName, long offset) {
+    }
+
+    // bloco em cache: posição na área comum, bytes guardados e se a leitura acabou no fim do ficheiro
+    private record Entry(int slot, int length, boolean endOfFile) {
+    }
+
+    private final long capacity;
+    private final int protectedSlots;
+    // uma só área fora do heap, reservada de uma vez no primeiro bloco e dividida em posições de BLOCK_SIZE:
+    // os blocos expulsos libertam a posição em vez de deixarem buffers diretos à espera do GC
+    private final int slots;
+    private ByteBuffer slab;
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder hitBytes = new LongAdder(); // leituras de disco poupadas
+    private final LongAdder evictions = new LongAdder();
+
+    public BlockCache(long capacity) {
+        this.slots = (int) Math.min(Math.max(0, capacity) / Constants.BLOCK_SIZE, Integer.MAX_VALUE / Constants.BLOCK_SIZE);
+        this.capacity = (long) slots * Constants.BLOCK_SIZE;
+        this.protectedSlots = (int) (slots * PROTECTED_SHARE);
+        for (int i = 0; i < slots; i++) {
+            freeSlots.add(i);
+        }
+    }
+
+    // devolve uma cópia do bloco em cache, ou null; um bloco guardado mais curto do que o pedido
+    // só serve se a leitura que o guardou tiver chegado ao fim do ficheiro
+    public synchronized byte[] get(String fileName, long offset, int length) {
+        Key key = new Key(fileName, offset);
+        Entry entry = protectedSegment.get(key);
+        if (entry == null) {
+            entry = probation.get(key);
+            if (entry != null && (length <= entry.length() || entry.endOfFile())) {
+                probation.remove(key);
+                promote(key, entry); // segundo acesso: passa a protegido
+            }
+        }
+        if (entry == null || (length > entry.length() && !entry.endOfFile())) {
+            misses.increment();
+            return null;
+        }
+
+        // o último bloco do ficheiro pode ser menor do que o pedido, como na leitura do disco
+        int size = Math.min(length, entry.length());
+        hits.increment();
+        hitBytes.add(size);
+        byte[] data = new byte[size];
+        slab.get(entry.slot() * Constants.BLOCK_SIZE, data, 0, size);
+        return data;
+    }
+
+    public synchronized boolean contains(String fileName, long offset) {
+        Key key = new Key(fileName, offset);
+        return protectedSegment.containsKey(key) || probation.containsKey(key);
+    }
+
+    // guarda um bloco acabado de ler do disco (length é o tamanho pedido na leitura)
+    public synchronized void put(String fileName, long offset, int length, byte[] data) {
+        if (slots == 0 || data.length == 0 || data.length > Constants.BLOCK_SIZE) return;
+        if (slab == null) slab = ByteBuffer.allocateDirect(slots * Constants.BLOCK_SIZE); // nós que nunca servem não a reservam
+        Key key = new Key(fileName, offset);
+        Entry existing = protectedSegment.get(key);
+        if (existing == null) existing = probation.get(key);
+        if (existing != null) {
+            if (existing.length() >= data.length) return;
+            release(probation.containsKey(key) ? probation.remove(key) : protectedSegment.remove(key));
+        }
+
+        if (freeSlots.isEmpty()) evict(1);
+        if (freeSlots.isEmpty()) return; // tudo protegido e cheio
+        int slot = freeSlots.poll();
+        slab.put(slot * Constants.BLOCK_SIZE, data);
+        probation.put(key, new Entry(slot, data.length, data.length < length));
+        cachedBytes += data.length;
+    }
+
+    // o ficheiro mudou no disco
+    public synchronized void invalidate(String fileName) {
+        removeFile(probation, fileName);
+        removeFile(protectedSegment, fileName);
+    }
+
+    private void promote(Key key, Entry entry) {
+        protectedSegment.put(key, entry);
+        // excesso da zona protegida volta para a experiência, como os mais recentes desta
+        while (protectedSegment.size() > protectedSlots && !protectedSegment.isEmpty()) {
+            Map.Entry<Key, Entry> eldest = protectedSegment.entrySet().iterator().next();
+            protectedSegment.remove(eldest.getKey());
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    // liberta posições expulsando os blocos mais antigos em experiência
+    private void evict(int needed) {
+        Iterator<Map.Entry<Key, Entry>> eldest = probation.entrySet().iterator();
+        while (freeSlots.size() < needed && eldest.hasNext()) {
+            release(eldest.next().getValue());
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private void release(Entry entry) {
+        cachedBytes -= entry.length();
+        freeSlots.push(entry.slot()); // reutilizada já a seguir, ainda quente na cache do CPU
+    }
+
+    private void removeFile(Map<Key, Entry> segment, String fileName) {
+        Iterator<Map.Entry<Key, Entry>> entries = segment.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Entry> entry = entries.next();
+            if (entry.getKey().fileName().equals(fileName)) {
+                release(entry.getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getHitBytes() {
+        return hitBytes.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long getSizeBytes() {
+        return cachedBytes;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,106 @@
+package pt.iscte.pcd.isctorrent.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// índice por conteúdo dos blocos dos ficheiros locais: SHA-256 de cada bloco de BLOCK_SIZE
+public class BlockIndex {
+    public static final int HASH_SIZE = 32;
+
+    // onde está um bloco com determinado conteúdo
+    public record Location(File file, long offset, int length) {
+    }
+
+    private final Map<ByteBuffer, Location> blocks = new HashMap<>();
+    private final Map<String, byte[]> hashesByFile = new HashMap<>(); // hashes concatenados de cada ficheiro
+
+    // (re)indexa um ficheiro; o cálculo é feito fora do lock
+    public void index(File file) throws IOException {
+        byte[] hashes = computeHashes(file);
+        synchronized(this) {
+            removeEntries(file.getName());
+            hashesByFile.put(file.getName(), hashes);
+            long length = file.length();
+            for (int i = 0; i < hashes.length / HASH_SIZE; i++) {
+                long offset = (long) i * Constants.BLOCK_SIZE;
+                int blockLength = (int) Math.min(Constants.BLOCK_SIZE, length - offset);
+                blocks.putIfAbsent(key(hashes, i), new Location(file, offset, blockLength));
+            }
+        }
+    }
+
+    public synchronized void remove(String fileName) {
+        removeEntries(fileName);
+    }
+
+    public synchronized byte[] getHashes(String fileName) {
+        return hashesByFile.get(fileName);
+    }
+
+    public synchronized Location find(byte[] hashes, int block) {
+        return blocks.get(key(hashes, block));
+    }
+
+    public synchronized boolean isEmpty() {
+        return blocks.isEmpty();
+    }
+
+    public synchronized int size() {
+        return blocks.size();
+    }
+
+    private void removeEntries(String fileName) {
+        byte[] old = hashesByFile.remove(fileName);
+        if (old == null) return;
+        for (int i = 0; i < old.length / HASH_SIZE; i++) {
+            ByteBuffer key = key(old, i);
+            Location location = blocks.get(key);
+            if (location != null && location.file().getName().equals(fileName)) {
+                blocks.remove(key);
+            }
+        }
+    }
+
+    private static ByteBuffer key(byte[] hashes, int block) {
+        return ByteBuffer.wrap(hashes, block * HASH_SIZE, HASH_SIZE).slice();
+    }
+
+    // hashes de todos os blocos, lendo o ficheiro uma só vez
+    static byte[] computeHashes(File file) throws IOException {
+        long length = file.length();
+        int blocks = (int) ((length + Constants.BLOCK_SIZE - 1) / Constants.BLOCK_SIZE);
+        byte[] hashes = new byte[blocks * HASH_SIZE];
+        byte[] buffer = new byte[Constants.BLOCK_SIZE];
+        MessageDigest sha = sha256();
+        try (InputStream in = new FileInputStream(file)) {
+            for (int i = 0; i < blocks; i++) {
+                int read = in.readNBytes(buffer, 0, buffer.length);
+                sha.update(buffer, 0, read);
+                System.arraycopy(sha.digest(), 0, hashes, i * HASH_SIZE, HASH_SIZE);
+            }
+        }
+        return hashes;
+    }
+
+    // confirma que os dados correspondem ao hash esperado do bloco
+    public static boolean matches(byte[] data, byte[] hashes, int block) {
+        byte[] hash = sha256().digest(data);
+        return Arrays.equals(hash, 0, HASH_SIZE, hashes, block * HASH_SIZE, (block + 1) * HASH_SIZE);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -5,4 +5,46 @@ public class Constants {
     public static final String LOCAL_ADDRESS = "127.0.0.1";
     public static final int MAX_CONCURRENT_DOWNLOADS = 5;
     public static final long SEARCH_TIMEOUT_MS = 5000; // timeout para coordenação de pesquisas
+    public static final int SEARCH_PAGE_SIZE = 100; // resultados por página de resposta
+    public static final int SEARCH_TTL = Integer.getInteger("isctorrent.searchTtl", 3); // saltos de uma pesquisa
+    public static final int SEEN_QUERIES = 4096; // pesquisas recentes lembradas para descartar duplicados
+
+    // arranque: ligações aos nós conhecidos
+    public static final int CONNECT_TIMEOUT_MS = Integer.getInteger("isctorrent.connectTimeout", 3000);
+    public static final int MAX_PENDING_CONNECTS = 8; // ligações em curso ao mesmo tempo
+    public static final int CONNECT_ATTEMPTS = 5; // tentativas por nó conhecido (espera 1s, 2s, 4s, 8s)
+    public static final long CONNECT_BACKOFF_MS = 1000;
+    public static final int MAX_KNOWN_PEERS = 64; // nós guardados entre execuções
+
+    // pasta onde gravar o tráfego de todas as ligações (desligado se não definida)
+    public static final String TRACE_DIRECTORY = System.getProperty("isctorrent.trace");
+
+    // fluxos de dados por nó em cada download (configuráveis por propriedades do sistema)
+    public static final int DATA_STREAMS_PER_PEER = Integer.getInteger("isctorrent.streams", 1);
+    public static final int MAX_DATA_STREAMS_PER_PEER = Integer.getInteger("isctorrent.maxStreams", 4);
+    public static final long STREAM_TUNING_INTERVAL_MS = 1000; // período de medição do débito
+
+    // eventos de progresso dos downloads: período de publicação e tempo sem blocos até uma fonte contar como parada
+    public static final long PROGRESS_INTERVAL_MS = Long.getLong("isctorrent.progressInterval", 250);
+    public static final long PROGRESS_STALL_MS = Long.getLong("isctorrent.stallTimeout", 5000);
+    // tempo sem blocos novos, com blocos que nenhuma fonte tem, até o download ser dado como falhado
+    public static final long DOWNLOAD_STALL_TIMEOUT_MS = Long.getLong("isctorrent.downloadStallTimeout", 60000);
+
+    // slots de upload: nós servidos em simultâneo (0 serve todos) e período de reavaliação
+    public static final int UPLOAD_SLOTS = Integer.getInteger("isctorrent.uploadSlots", 4);
+    public static final long RECHOKE_INTERVAL_MS = Long.getLong("isctorrent.rechokeInterval", 2000);
+
+    // espera máxima pela resposta a um pedido de dados; depois disso a ligação é dada como perdida
+    public static final long REQUEST_TIMEOUT_MS = Long.getLong("isctorrent.requestTimeout", 30000);
+
+    // cache de blocos servidos (fora do heap) e leitura adiante em pedidos sequenciais
+    public static final long BLOCK_CACHE_BYTES = Long.getLong("isctorrent.cacheBytes", 64L * 1024 * 1024);
+    public static final int READ_AHEAD_BLOCKS = Integer.getInteger("isctorrent.readAhead", 4);
+
+    // atualiza cópias locais existentes pedindo só as diferenças
+    public static final boolean DELTA_SYNC = Boolean.parseBoolean(System.getProperty("isctorrent.delta", "true"));
+
+    // downloads em lote de ficheiros pequenos
+    public static final long BATCH_FILE_MAX_SIZE = 64 * 1024; // ficheiros até este tamanho vão em lote
+    public static final int BATCH_MAX_BYTES = 256 * 1024; // dados pedidos por mensagem
 }
\ No newline at end of file
@@ -1,20 +1,67 @@
 package pt.iscte.pcd.isctorrent.core;
 
 import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+import pt.iscte.pcd.isctorrent.protocol.SearchQuery;
+import pt.iscte.pcd.isctorrent.protocol.ShareSummaryUpdate;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FileManager {
     private final String workingDirectory;
     private final Map<String, File> availableFiles; // cache de ficheiros disponíveis
     private final int port;
+    private final AtomicInteger openFileHandles = new AtomicInteger(); // para métricas
+    private final BlockIndex blockIndex = new BlockIndex(); // blocos locais por conteúdo
+    private final BlockCache cache = new BlockCache(Constants.BLOCK_CACHE_BYTES); // blocos populares
+    private final ExecutorService prefetcher; // leitura adiante
+    private final Set<String> prefetching = ConcurrentHashMap.newKeySet(); // blocos a ser lidos adiante
+    private final LongAdder readAheadBlocks = new LongAdder();
+    private final Map<String, Long> summarizedFiles = new HashMap<>(); // nomes anunciados no resumo
+    private ShareSummary shareSummary; // filtro de Bloom enviado aos outros nós
 
     // inicializa gestor de ficheiros e carrega a pasta de trabalho
     public FileManager(String workingDirectory, int port) {
         this.workingDirectory = workingDirectory;
         this.availableFiles = new HashMap<>();
         this.port = port;
+        this.prefetcher = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(256), runnable -> {
+                    Thread thread = new Thread(runnable, "read-ahead");
+                    thread.setDaemon(true);
+                    return thread;
+                });
         loadFiles(); // carrega ficheiros no arranque conforme enunciado
+        synchronized(this) {
+            for (File file : availableFiles.values()) {
+                summarizedFiles.put(file.getName(), file.length());
+            }
+            shareSummary = ShareSummary.of(summarizedFiles);
+        }
+
+        // indexa o conteúdo em segundo plano para não atrasar o arranque
+        Thread indexer = new Thread(this::indexFiles, "block-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    private void indexFiles() {
+        List<File> files;
+        synchronized(this) {
+            files = new ArrayList<>(availableFiles.values());
+        }
+        for (File file : files) {
+            try {
+                blockIndex.index(file);
+            } catch (IOException e) {
+                System.err.println("Falha ao indexar " + file.getName() + ": " + e.getMessage());
+            }
+        }
     }
 
     // carrega todos os ficheiros da pasta de trabalho no start
@@ -31,42 +78,196 @@ public class FileManager {
     }
 
     // lê um bloco específico do ficheiro para enviar a outros nós
-    public synchronized byte[] readFileBlock(String fileName, long offset, int length) throws IOException {
-        File file = availableFiles.get(fileName);
+    public byte[] readFileBlock(String fileName, long offset, int length) throws IOException {
+        return readFileBlock(fileName, offset, length, null);
+    }
+
+    // lê um bloco, da cache se possível; com tracker, quando o fluxo lê por ordem,
+    // os blocos seguintes são lidos adiante em segundo plano
+    public byte[] readFileBlock(String fileName, long offset, int length, ReadAheadTracker tracker) throws IOException {
+        File file;
+        synchronized(this) {
+            file = availableFiles.get(fileName);
+        }
         if (file == null) {
             throw new IOException("File not found");
         }
 
-        byte[] buffer = new byte[length];
-        try (FileInputStream fis = new FileInputStream(file)) {
-            fis.skip(offset); // vai para a posição do bloco
-            int read = fis.read(buffer);
-            if (read < length) { // último bloco pode ser menor
-                byte[] actual = new byte[read];
-                System.arraycopy(buffer, 0, actual, 0, read);
-                return actual;
+        byte[] data = cache.get(fileName, offset, length);
+        if (data == null) {
+            data = readFromDisk(file, offset, length);
+            cache.put(fileName, offset, length, data);
+        }
+        if (tracker != null && tracker.onRead(fileName, offset, length)) {
+            readAhead(file, offset + length, length);
+        }
+        return data;
+    }
+
+    // leitura posicional, sem percorrer o ficheiro desde o início
+    private byte[] readFromDisk(File file, long offset, int length) throws IOException {
+        openFileHandles.incrementAndGet();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) break;
             }
-            return buffer;
+            if (buffer.position() < length) { // último bloco pode ser menor
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            }
+            return buffer.array();
+        } finally {
+            openFileHandles.decrementAndGet();
+        }
+    }
+
+    // agenda a leitura dos próximos blocos que ainda não estão em cache
+    private void readAhead(File file, long from, int length) {
+        String fileName = file.getName();
+        long size = file.length();
+        for (int i = 0; i < Constants.READ_AHEAD_BLOCKS; i++) {
+            long offset = from + (long) i * length;
+            if (offset >= size) break;
+            String key = fileName + "@" + offset;
+            if (cache.contains(fileName, offset) || !prefetching.add(key)) continue;
+            try {
+                prefetcher.execute(() -> {
+                    try {
+                        cache.put(fileName, offset, length, readFromDisk(file, offset, length));
+                        readAheadBlocks.increment();
+                    } catch (IOException e) {
+                        // leitura adiante é só uma otimização
+                    } finally {
+                        prefetching.remove(key);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                prefetching.remove(key); // fila cheia: o bloco será lido quando for pedido
+            }
+        }
+    }
+
+    // lê o ficheiro completo (ex: para calcular diferenças)
+    public byte[] readFile(String fileName) throws IOException {
+        long size = getFileSize(fileName);
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("File not found");
+        }
+        File file;
+        synchronized(this) {
+            file = availableFiles.get(fileName);
+        }
+        if (file == null) {
+            throw new IOException("File not found");
+        }
+        return readFromDisk(file, 0, (int) size); // sem passar pela cache, para não expulsar os blocos populares
+    }
+
+    // torna disponível um ficheiro acabado de descarregar
+    public void addFile(File file) {
+        synchronized(this) {
+            availableFiles.put(file.getName(), file);
+        }
+        cache.invalidate(file.getName());
+        try {
+            blockIndex.index(file); // o conteúdo pode ter mudado (ex: delta)
+        } catch (IOException e) {
+            System.err.println("Falha ao indexar " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized ShareSummary getShareSummary() {
+        return shareSummary;
+    }
+
+    // anuncia um nome no resumo de partilhas; devolve a mensagem a enviar aos outros nós
+    // (só os bits novos, ou o resumo completo se teve de ser reconstruído maior), ou null se nada mudou
+    public synchronized Object summarize(String fileName, long size) {
+        summarizedFiles.put(fileName, size);
+        int[] added = shareSummary.add(fileName, size);
+        if (added.length == 0) return null;
+        if (shareSummary.isSaturated()) {
+            shareSummary = ShareSummary.of(summarizedFiles);
+            return shareSummary.toMessage();
+        }
+        return new ShareSummaryUpdate(shareSummary.getBitCount(), added);
+    }
+
+    // hashes de conteúdo dos blocos de um ficheiro, ou null se não existe
+    public byte[] getBlockHashes(String fileName) throws IOException {
+        byte[] hashes = blockIndex.getHashes(fileName);
+        if (hashes != null) return hashes;
+
+        File file;
+        synchronized(this) {
+            file = availableFiles.get(fileName);
         }
+        if (file == null) return null;
+        blockIndex.index(file);
+        return blockIndex.getHashes(fileName);
+    }
+
+    public boolean hasIndexedBlocks() {
+        return !blockIndex.isEmpty();
+    }
+
+    // procura localmente um bloco com o conteúdo indicado; null se não existe ou mudou entretanto
+    public byte[] readLocalBlock(byte[] hashes, int block, int length) {
+        BlockIndex.Location location = blockIndex.find(hashes, block);
+        if (location == null || location.length() != length) return null;
+
+        byte[] data = new byte[length];
+        openFileHandles.incrementAndGet();
+        try (RandomAccessFile file = new RandomAccessFile(location.file(), "r")) {
+            file.seek(location.offset());
+            file.readFully(data);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            openFileHandles.decrementAndGet();
+        }
+        return BlockIndex.matches(data, hashes, block) ? data : null;
+    }
+
+    // tamanho de um ficheiro completo, ou -1 se não existe
+    public synchronized long getFileSize(String fileName) {
+        File file = availableFiles.get(fileName);
+        return file != null ? file.length() : -1;
+    }
+
+    public BlockCache getBlockCache() {
+        return cache;
+    }
+
+    public long getReadAheadBlocks() {
+        return readAheadBlocks.sum();
+    }
+
+    public int getOpenFileHandles() {
+        return openFileHandles.get();
     }
 
     // procura ficheiros locais que contenham a palavra-chave
-    public synchronized List<FileSearchResult> searchFiles(String keyword) {
+    public List<FileSearchResult> searchFiles(String keyword) {
+        return search(new QueryMatcher(SearchQuery.of(keyword)));
+    }
+
+    // procura ficheiros locais que satisfazem a pesquisa, por ordem de nome e até ao limite
+    public List<FileSearchResult> search(QueryMatcher matcher) {
+        List<File> files;
+        synchronized(this) {
+            files = new ArrayList<>(availableFiles.values());
+        }
+
         List<FileSearchResult> results = new ArrayList<>();
         String localAddress = Constants.LOCAL_ADDRESS;
-
-        for (String fileName : availableFiles.keySet()) {
-            File file = availableFiles.get(fileName);
-            if (file.getName().toLowerCase().contains(keyword.toLowerCase())) { // pesquisa case-insensitive
-                results.add(new FileSearchResult(
-                        file.getName(),
-                        file.length(),
-                        localAddress,
-                        port,
-                        workingDirectory
-                ));
+        for (File file : files) {
+            long size = file.length();
+            if (matcher.matches(file.getName(), size)) {
+                results.add(new FileSearchResult(file.getName(), size, localAddress, port, workingDirectory));
             }
         }
-        return results;
+        results.sort(Comparator.comparing(FileSearchResult::fileName));
+        return results.size() > matcher.limit() ? new ArrayList<>(results.subList(0, matcher.limit())) : results;
     }
 }
\ No newline at end of file
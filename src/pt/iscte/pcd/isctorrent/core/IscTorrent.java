@@ -1,75 +1,172 @@
 package pt.iscte.pcd.isctorrent.core;
 
+import pt.iscte.pcd.isctorrent.download.BatchDownload;
+import pt.iscte.pcd.isctorrent.download.DeltaDownload;
+import pt.iscte.pcd.isctorrent.download.DownloadProgress;
 import pt.iscte.pcd.isctorrent.download.DownloadTasksManager;
-import pt.iscte.pcd.isctorrent.gui.GUI;
+import pt.iscte.pcd.isctorrent.jfr.SearchBroadcastEvent;
+import pt.iscte.pcd.isctorrent.metrics.NodeMetrics;
 import pt.iscte.pcd.isctorrent.network.ConnectionManager;
 import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
-import pt.iscte.pcd.isctorrent.protocol.WordSearchMessage;
+import pt.iscte.pcd.isctorrent.protocol.SearchQuery;
+import pt.iscte.pcd.isctorrent.protocol.SearchQueryMessage;
 import pt.iscte.pcd.isctorrent.network.NodeConnection;
+import pt.iscte.pcd.isctorrent.network.PeerBootstrap;
 import pt.iscte.pcd.isctorrent.network.SearchResultsCollector;
+import pt.iscte.pcd.isctorrent.network.SearchRouter;
+import pt.iscte.pcd.isctorrent.network.TrafficRecorder;
+import pt.iscte.pcd.isctorrent.network.UploadSlots;
 import pt.iscte.pcd.isctorrent.sync.MyCountDownLatch;
 
-import javax.swing.*;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import javax.net.SocketFactory;
+import java.io.File;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class IscTorrent {
     private final int port;
+    private final String nodeId; // identidade trocada no handshake, independente do endereço
     private final String workingDirectory;
-    private final GUI gui;
+    private final List<TorrentListener> listeners; // GUI ou consola, sem dependência de Swing
     private final ConnectionManager connectionManager;
     private final FileManager fileManager;
     private final DownloadTasksManager downloadManager;
+    private final NodeMetrics metrics; // exposto por JMX
+    private final SearchRouter searchRouter; // pesquisas em vários saltos
+    private final PeerBootstrap bootstrap; // ligações em segundo plano e nós conhecidos
+    private final UploadSlots uploadSlots; // que nós recebem dados de cada vez
+    private final TrafficRecorder trafficRecorder; // null se -Disctorrent.trace não estiver definido
 
     // classe principal que coordena todos os componentes
     public IscTorrent(int port, String workingDirectory) {
+        this(port, workingDirectory, SocketFactory.getDefault(), null);
+    }
+
+    // guarda em peersFile os nós a que se liga, para os religar no próximo arranque
+    public IscTorrent(int port, String workingDirectory, Path peersFile) {
+        this(port, workingDirectory, SocketFactory.getDefault(), peersFile);
+    }
+
+    // permite substituir as ligações de saída (ex: simulação de latência em testes de carga)
+    public IscTorrent(int port, String workingDirectory, SocketFactory socketFactory) {
+        this(port, workingDirectory, socketFactory, null);
+    }
+
+    private IscTorrent(int port, String workingDirectory, SocketFactory socketFactory, Path peersFile) {
         this.port = port;
+        this.nodeId = PeerBootstrap.loadNodeId(peersFile);
         this.workingDirectory = workingDirectory;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.metrics = new NodeMetrics(this); // antes das ligações, que já registam tráfego
+        this.trafficRecorder = Constants.TRACE_DIRECTORY != null
+                ? TrafficRecorder.open(Constants.TRACE_DIRECTORY, port) : null;
 
         this.fileManager = new FileManager(workingDirectory, port);
         this.downloadManager = new DownloadTasksManager(this);
-        this.connectionManager = new ConnectionManager(port, this);
-        this.gui = new GUI(this, port);
+        this.searchRouter = new SearchRouter(this);
+        this.uploadSlots = new UploadSlots(this);
+        this.connectionManager = new ConnectionManager(port, this, socketFactory);
+        this.bootstrap = new PeerBootstrap(this, peersFile);
+        metrics.register(port);
     }
 
-    // coordena pesquisa usando CountDownLatch
-    public void searchFiles(String keyword) {
-        List<FileSearchResult> localResults = fileManager.searchFiles(keyword);
+    public void addListener(TorrentListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TorrentListener listener) {
+        listeners.remove(listener);
+    }
+
+    // pesquisa escrita pelo utilizador (ex: "ext:mp3 min:1M rock"); a sintaxe está no SearchQuery
+    public void searchFiles(String text) {
+        SearchQuery query;
+        try {
+            query = SearchQuery.parse(text);
+        } catch (IllegalArgumentException e) {
+            notifyError("Pesquisa inválida", e.getMessage());
+            return;
+        }
+        search(query);
+    }
+
+    // coordena pesquisa usando CountDownLatch; os nós filtram e limitam do seu lado, reencaminham
+    // aos seus vizinhos até SEARCH_TTL saltos e respondem em páginas, mostradas à medida que chegam
+    public void search(SearchQuery query) {
+        long queryId = searchRouter.newQuery(); // identifica os resultados desta pesquisa na interface
+        for (TorrentListener listener : listeners) {
+            listener.onSearchStarted(queryId);
+        }
+        List<FileSearchResult> localResults = searchLocal(new QueryMatcher(query));
+        notifySearchResults(queryId, localResults); // resultados locais aparecem de imediato
 
         int activeConnections = connectionManager.getActiveConnectionsCount();
-        if (activeConnections == 0) {
-            gui.addSearchResults(localResults); // só resultados locais
+        if (activeConnections == 0) return;
+        SearchBroadcastEvent event = new SearchBroadcastEvent();
+        event.begin();
+        long start = System.nanoTime();
+
+        // com um só salto, só os nós cujo resumo de partilhas pode satisfazer a pesquisa
+        List<NodeConnection> targets = connectionManager.getSearchTargets(query, Constants.SEARCH_TTL);
+        metrics.searchPeersSkipped(activeConnections - targets.size());
+        if (targets.isEmpty()) {
+            metrics.recordSearch(0, System.nanoTime() - start);
             return;
         }
 
-        // usa CountDownLatch para esperar por todas as respostas
-        MyCountDownLatch latch = new MyCountDownLatch(activeConnections);
-        SearchResultsCollector collector = new SearchResultsCollector(latch, localResults);
+        // usa CountDownLatch para esperar pela última página de cada nó
+        MyCountDownLatch latch = new MyCountDownLatch(targets.size());
+        SearchResultsCollector collector = new SearchResultsCollector(latch, localResults, query.limit(),
+                results -> notifySearchResults(queryId, results));
+        searchRouter.register(queryId, collector);
 
         try {
-            WordSearchMessage searchMessage = new WordSearchMessage(
-                    keyword,
-                    InetAddress.getLocalHost().getHostAddress(),
-                    port
-            );
-            connectionManager.broadcastSearch(searchMessage, collector);
+            connectionManager.broadcastSearch(new SearchQueryMessage(queryId, query, Constants.SEARCH_PAGE_SIZE,
+                    Constants.SEARCH_TTL, Constants.SEARCH_TIMEOUT_MS), targets, collector);
 
             // espera por todas as respostas ou timeout
-            latch.await(Constants.SEARCH_TIMEOUT_MS);
-            gui.addSearchResults(collector.getAllResults());
-
-        } catch (UnknownHostException e) {
-            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(gui,
-                    "Erro ao obter endereço local: " + e.getMessage(),
-                    "Erro de Rede",
-                    JOptionPane.ERROR_MESSAGE));
+            boolean completed = latch.await(Constants.SEARCH_TIMEOUT_MS);
+            metrics.recordSearch(targets.size(), System.nanoTime() - start);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.keyword = query.pattern();
+                event.fanOut = targets.size();
+                event.skipped = activeConnections - targets.size();
+                event.results = collector.getAllResults().size();
+                event.timedOut = !completed;
+                event.commit();
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+        } finally {
+            searchRouter.unregister(queryId);
         }
     }
 
+    // ficheiros completos e downloads em curso que satisfazem a pesquisa, por ordem de nome e até ao limite
+    public List<FileSearchResult> searchLocal(QueryMatcher matcher) {
+        List<FileSearchResult> results = fileManager.search(matcher);
+        // downloads em curso também servem blocos já recebidos
+        List<FileSearchResult> partial = downloadManager.searchPartialFiles(matcher, port, workingDirectory);
+        if (partial.isEmpty()) return results;
+
+        results = new ArrayList<>(results);
+        for (FileSearchResult result : partial) {
+            if (fileManager.getFileSize(result.fileName()) < 0) {
+                results.add(result);
+            }
+        }
+        results.sort(Comparator.comparing(FileSearchResult::fileName));
+        return results.size() > matcher.limit() ? new ArrayList<>(results.subList(0, matcher.limit())) : results;
+    }
+
     // inicia download com múltiplas threads, uma por nó
     public void startDownloadFromMultipleNodes(List<FileSearchResult> results) {
         if (results.isEmpty()) return;
@@ -78,20 +175,115 @@ public class IscTorrent {
         System.out.println("Download iniciado: " + fileName);
 
         List<NodeConnection> allConnections = new ArrayList<>();
+        List<FileSearchResult> unconnected = new ArrayList<>(); // donos que chegaram por outros nós
 
-        // recolhe todas as conexões disponíveis para o ficheiro
+        // recolhe todas as conexões disponíveis para o ficheiro, uma por nó
         for (FileSearchResult result : results) {
-            List<NodeConnection> nodeConnections = connectionManager
-                    .getConnectionsForNode(result.nodeAddress(), result.nodePort());
-            allConnections.addAll(nodeConnections);
+            List<NodeConnection> found = connectionManager.getConnectionsFor(result);
+            if (found.isEmpty() && connectionManager.canConnectTo(result)) {
+                unconnected.add(result);
+            }
+            for (NodeConnection connection : found) {
+                if (!allConnections.contains(connection)) allConnections.add(connection);
+            }
         }
 
-        if (!allConnections.isEmpty()) {
-            downloadManager.startDownload(results.get(0), allConnections, this.workingDirectory);
+        if (allConnections.isEmpty() && unconnected.isEmpty()) {
+            notifyError("Erro de Download", "Nenhuma conexão ativa tem este ficheiro disponível");
+            return;
+        }
+        AtomicBoolean started = new AtomicBoolean(!allConnections.isEmpty());
+        if (started.get()) {
+            startDownload(results.get(0), allConnections);
+        }
+        // ligar aos restantes donos bloqueia: em segundo plano, e cada um junta-se ao download quando responder
+        // (o primeiro a responder arranca-o, se não havia nenhum dono ligado)
+        for (FileSearchResult result : unconnected) {
+            bootstrap.connectToOwnerAsync(result, found -> {
+                if (found.isEmpty()) return;
+                if (started.compareAndSet(false, true)) {
+                    startDownload(results.get(0), found);
+                } else {
+                    for (NodeConnection connection : found) {
+                        downloadManager.addSourceAsync(fileName, connection, true);
+                    }
+                }
+            });
+        }
+    }
+
+    private void startDownload(FileSearchResult file, List<NodeConnection> sources) {
+        if (Constants.DELTA_SYNC && fileManager.getFileSize(file.fileName()) >= 0) {
+            // já existe uma cópia local: só as diferenças atravessam a rede
+            new Thread(new DeltaDownload(this, file, sources, workingDirectory), "delta-" + file.fileName()).start();
         } else {
-            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(gui,
-                    "Nenhuma conexão ativa tem este ficheiro disponível",
-                    "Erro de Download", JOptionPane.ERROR_MESSAGE));
+            downloadManager.startDownload(file, sources, this.workingDirectory);
+        }
+    }
+
+    // o lote precisa de todas as fontes à partida: liga em paralelo aos donos a que ainda não estamos ligados,
+    // esperando no máximo um timeout de ligação no total
+    private void connectToOwners(List<List<FileSearchResult>> files) {
+        Map<String, FileSearchResult> owners = new HashMap<>(); // um por nó, mesmo que tenha vários ficheiros
+        for (List<FileSearchResult> results : files) {
+            for (FileSearchResult result : results) {
+                if (connectionManager.getConnectionsFor(result).isEmpty() && connectionManager.canConnectTo(result)) {
+                    String owner = result.nodeId() != null ? result.nodeId() : result.nodeAddress() + ":" + result.nodePort();
+                    owners.putIfAbsent(owner, result);
+                }
+            }
+        }
+        if (owners.isEmpty()) return;
+        MyCountDownLatch latch = new MyCountDownLatch(owners.size());
+        for (FileSearchResult owner : owners.values()) {
+            bootstrap.connectToOwnerAsync(owner, found -> latch.countDown());
+        }
+        try {
+            latch.await(Constants.CONNECT_TIMEOUT_MS + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // descarrega vários ficheiros (cada um com os resultados de todos os nós que o têm):
+    // os pequenos seguem juntos num lote, os restantes como downloads individuais;
+    // bloqueia na rede (lote, hashes locais): a interface chama-o numa thread à parte
+    public void startDownloads(List<List<FileSearchResult>> files) {
+        List<List<FileSearchResult>> small = new ArrayList<>();
+        for (List<FileSearchResult> results : files) {
+            if (results.isEmpty()) continue;
+            if (results.get(0).fileSize() <= Constants.BATCH_FILE_MAX_SIZE) {
+                small.add(results);
+            } else {
+                startDownloadFromMultipleNodes(results);
+            }
+        }
+
+        if (small.size() == 1) {
+            startDownloadFromMultipleNodes(small.get(0));
+        } else if (small.size() > 1) {
+            System.out.println("Download em lote iniciado: " + small.size() + " ficheiros");
+            connectToOwners(small);
+            BatchDownload batch = new BatchDownload(this, small, workingDirectory);
+            if (batch.hasSources()) {
+                batch.start();
+            } else {
+                notifyError("Erro de Download", "Nenhuma conexão ativa tem estes ficheiros disponíveis");
+            }
+        }
+    }
+
+    // torna disponível um ficheiro acabado de descarregar e anuncia-o no resumo de partilhas
+    public void addSharedFile(File file) {
+        fileManager.addFile(file);
+        publishShared(file.getName(), file.length());
+    }
+
+    // envia aos nós ligados as alterações ao resumo de partilhas
+    public void publishShared(String fileName, long size) {
+        Object update = fileManager.summarize(fileName, size);
+        if (update != null) {
+            connectionManager.sendToAll(update);
         }
     }
 
@@ -100,21 +292,121 @@ public class IscTorrent {
         connectionManager.connectToNode(address, port);
     }
 
+    // liga em segundo plano (ex: a partir da interface); o nó fica guardado se a ligação tiver sucesso
+    public void connectToNodeAsync(String address, int port) {
+        bootstrap.connectAsync(address, port);
+    }
+
+    // religa em paralelo aos nós guardados na execução anterior
+    public void reconnectKnownPeers() {
+        bootstrap.reconnectKnownPeers();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getWorkingDirectory() {
+        return workingDirectory;
+    }
+
     public FileManager getFileManager() {
         return fileManager;
     }
 
-    public GUI getGui() {
-        return gui;
+    // notificações para os listeners registados
+    public void notifyConnectionsChanged() {
+        for (TorrentListener listener : listeners) {
+            listener.onConnectionsChanged();
+        }
+    }
+
+    // resultados sem pesquisa conhecida (respostas em lista de nós antigos)
+    public void notifySearchResults(List<FileSearchResult> results) {
+        notifySearchResults(TorrentListener.NO_SEARCH, results);
+    }
+
+    public void notifySearchResults(long searchId, List<FileSearchResult> results) {
+        // resultados tardios de ficheiros em download juntam fontes ao download em curso
+        for (FileSearchResult result : results) {
+            if (downloadManager.isActive(result.fileName())) {
+                for (NodeConnection connection : connectionManager.getConnectionsFor(result)) {
+                    downloadManager.addSourceAsync(result.fileName(), connection, true);
+                }
+            }
+        }
+        for (TorrentListener listener : listeners) {
+            listener.onSearchResults(searchId, results);
+        }
+    }
+
+    public void notifyDownloadProgress(DownloadProgress progress) {
+        for (TorrentListener listener : listeners) {
+            listener.onDownloadProgress(progress);
+        }
+    }
+
+    public void notifyDownloadComplete(String fileName, Map<String, Integer> blocksPerNode, long elapsedTime) {
+        for (TorrentListener listener : listeners) {
+            listener.onDownloadComplete(fileName, blocksPerNode, elapsedTime);
+        }
+    }
+
+    public void notifyBatchDownloadComplete(int fileCount, Map<String, Integer> blocksPerNode, long elapsedTime) {
+        for (TorrentListener listener : listeners) {
+            listener.onBatchDownloadComplete(fileCount, blocksPerNode, elapsedTime);
+        }
+    }
+
+    public void notifyBlockReceived(String fileName, String node, int length, long latencyNanos) {
+        for (TorrentListener listener : listeners) {
+            listener.onBlockReceived(fileName, node, length, latencyNanos);
+        }
+    }
+
+    public void notifyError(String title, String message) {
+        System.err.println(title + ": " + message);
+        for (TorrentListener listener : listeners) {
+            listener.onError(title, message);
+        }
     }
 
     public ConnectionManager getConnectionManager() {
         return connectionManager;
     }
 
+    public DownloadTasksManager getDownloadManager() {
+        return downloadManager;
+    }
+
+    public NodeMetrics getMetrics() {
+        return metrics;
+    }
+
+    public TrafficRecorder getTrafficRecorder() {
+        return trafficRecorder;
+    }
+
+    public SearchRouter getSearchRouter() {
+        return searchRouter;
+    }
+
+    public UploadSlots getUploadSlots() {
+        return uploadSlots;
+    }
+
     // termina todas as operações em curso
     public void shutdown() {
+        bootstrap.shutdown();
+        searchRouter.shutdown();
+        uploadSlots.shutdown();
         connectionManager.shutdown();
         downloadManager.shutdown();
+        metrics.unregister();
+        if (trafficRecorder != null) trafficRecorder.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+package pt.iscte.pcd.isctorrent.core;
+
+import pt.iscte.pcd.isctorrent.protocol.SearchQuery;
+
+import java.io.Serial;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// avalia uma SearchQuery sobre nomes de ficheiros, com o padrão compilado uma única vez
+public class QueryMatcher {
+    // as expressões regulares e os globs chegam de outros nós: um padrão com retrocesso catastrófico como
+    // (a+)+$ ou *a*a*a*a*c pararia a thread de pesquisa de cada nó por onde passa, por isso cada nome tem
+    // um limite de passos
+    private static final int MAX_REGEX_STEPS = 100_000;
+
+    private final SearchQuery query;
+    private final String lowerPattern;
+    private final Pattern regex; // expressão regular ou glob traduzido
+    private final boolean glob; // o glob tem de cobrir o nome todo
+
+    public QueryMatcher(SearchQuery query) {
+        this.query = query;
+        this.lowerPattern = query.pattern().toLowerCase(Locale.ROOT);
+        this.glob = query.mode() == SearchQuery.MatchMode.GLOB;
+        Pattern compiled = null;
+        try {
+            if (query.mode() == SearchQuery.MatchMode.REGEX && query.pattern().length() <= SearchQuery.MAX_REGEX_LENGTH) {
+                compiled = Pattern.compile(query.pattern(), Pattern.CASE_INSENSITIVE);
+            } else if (glob && query.pattern().length() <= SearchQuery.MAX_GLOB_LENGTH) {
+                compiled = Pattern.compile(globToRegex(query.pattern()), Pattern.CASE_INSENSITIVE);
+            }
+        } catch (IllegalArgumentException e) {
+            compiled = null; // padrão inválido não encontra nada
+        }
+        this.regex = compiled;
+    }
+
+    // traduz um glob (* ? [..] [!..] {a,b} e \ para escapar) numa expressão regular equivalente,
+    // avaliada com o mesmo limite de passos das expressões regulares
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*' -> {
+                    while (i + 1 < glob.length() && glob.charAt(i + 1) == '*') i++; // ** é igual a * num nome
+                    regex.append(".*");
+                }
+                case '?' -> regex.append('.');
+                case '\\' -> {
+                    if (++i >= glob.length()) throw new IllegalArgumentException("Escape no fim do glob");
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                }
+                case '[' -> {
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0) throw new IllegalArgumentException("Classe sem fim no glob");
+                    regex.append('[');
+                    int start = i + 1;
+                    if (glob.charAt(start) == '!') {
+                        regex.append('^');
+                        start++;
+                    }
+                    for (int j = start; j < end; j++) {
+                        char member = glob.charAt(j);
+                        if ("\\[&^".indexOf(member) >= 0) regex.append('\\'); // literais dentro da classe
+                        regex.append(member);
+                    }
+                    regex.append(']');
+                    i = end;
+                }
+                case '{' -> {
+                    if (inGroup) throw new IllegalArgumentException("Alternativas encaixadas no glob");
+                    inGroup = true;
+                    regex.append("(?:");
+                }
+                case '}' -> {
+                    if (!inGroup) throw new IllegalArgumentException("} sem { no glob");
+                    inGroup = false;
+                    regex.append(')');
+                }
+                case ',' -> regex.append(inGroup ? "|" : ",");
+                default -> regex.append(".^$|+()]{}".indexOf(c) >= 0 ? "\\" + c : String.valueOf(c));
+            }
+        }
+        if (inGroup) throw new IllegalArgumentException("Alternativas sem fim no glob");
+        return regex.toString();
+    }
+
+    public boolean matches(String fileName, long size) {
+        if (size < query.minSize() || size > query.maxSize()) return false;
+
+        String name = fileName.toLowerCase(Locale.ROOT); // pesquisa case-insensitive
+        if (!query.extensions().isEmpty()) {
+            int dot = name.lastIndexOf('.');
+            if (dot < 0 || !query.extensions().contains(name.substring(dot + 1))) return false;
+        }
+
+        return switch (query.mode()) {
+            case SUBSTRING -> name.contains(lowerPattern);
+            case PREFIX -> name.startsWith(lowerPattern);
+            case GLOB, REGEX -> regex != null && findWithinBudget(fileName);
+        };
+    }
+
+    // esgotado o limite, o nome conta como não encontrado
+    private boolean findWithinBudget(String fileName) {
+        try {
+            Matcher matcher = regex.matcher(new BudgetedChars(fileName, new int[]{MAX_REGEX_STEPS}));
+            return glob ? matcher.matches() : matcher.find();
+        } catch (BudgetExceeded e) {
+            return false;
+        }
+    }
+
+    private static class BudgetExceeded extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceeded() {
+            super(null, null, false, false); // sem stack trace: é só um sinal para parar
+        }
+    }
+
+    // o motor de expressões lê o texto carácter a carácter: cada leitura gasta um passo
+    private record BudgetedChars(String text, int[] steps) implements CharSequence {
+        @Override
+        public char charAt(int index) {
+            if (--steps[0] < 0) throw new BudgetExceeded();
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new BudgetedChars(text.substring(start, end), steps);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    public int limit() {
+        return query.limit();
+    }
+}
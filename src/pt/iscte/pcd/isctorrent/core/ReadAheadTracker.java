@@ -0,0 +1,22 @@
+package pt.iscte.pcd.isctorrent.core;
+
+// deteta pedidos sequenciais de blocos num fluxo (uma ligação): cada ligação tem o seu
+public class ReadAheadTracker {
+    private static final int SEQUENTIAL_THRESHOLD = 2; // pedidos seguidos até começar a ler adiante
+
+    private String fileName;
+    private long nextOffset = -1;
+    private int run = 0;
+
+    // regista o pedido; devolve true se o fluxo está a ler o ficheiro por ordem
+    public synchronized boolean onRead(String fileName, long offset, int length) {
+        if (fileName.equals(this.fileName) && offset == nextOffset) {
+            run++;
+        } else {
+            this.fileName = fileName;
+            run = 1;
+        }
+        nextOffset = offset + length;
+        return run >= SEQUENTIAL_THRESHOLD;
+    }
+}
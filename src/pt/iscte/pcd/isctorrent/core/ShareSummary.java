@@ -0,0 +1,225 @@
+package pt.iscte.pcd.isctorrent.core;
+
+import pt.iscte.pcd.isctorrent.protocol.SearchQuery;
+import pt.iscte.pcd.isctorrent.protocol.ShareSummaryMessage;
+import pt.iscte.pcd.isctorrent.protocol.ShareSummaryUpdate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// filtro de Bloom com os trigramas dos nomes, as extensões e as ordens de grandeza dos tamanhos partilhados:
+// quem pesquisa só contacta os nós cujo resumo pode satisfazer a pesquisa (falsos positivos, nunca falsos negativos)
+public class ShareSummary {
+    private static final int HASHES = 4;
+    private static final int BITS_PER_TOKEN = 10; // ~1% de falsos positivos com 4 hashes
+    private static final int MIN_BITS = 8 * 1024;
+
+    private final long[] bits;
+    private final int mask;
+    private int tokens = 0; // tokens que ligaram pelo menos um bit (estimativa dos distintos)
+
+    public ShareSummary(int expectedTokens) {
+        int size = Integer.highestOneBit(Math.max(MIN_BITS, expectedTokens * BITS_PER_TOKEN) - 1) << 1;
+        this.bits = new long[size / 64];
+        this.mask = size - 1;
+    }
+
+    // resumo recebido de outro nó
+    public ShareSummary(ShareSummaryMessage message) {
+        if (message.bits().length == 0 || Integer.bitCount(message.bits().length) != 1) {
+            throw new IllegalArgumentException("Resumo de partilhas inválido");
+        }
+        this.bits = message.bits().clone();
+        this.mask = bits.length * 64 - 1;
+    }
+
+    // resumo de um conjunto de ficheiros (nome -> tamanho), dimensionado para os tokens distintos
+    public static ShareSummary of(Map<String, Long> files) {
+        Set<String> distinct = new HashSet<>();
+        for (Map.Entry<String, Long> file : files.entrySet()) {
+            distinct.addAll(tokensOf(file.getKey(), file.getValue()));
+        }
+        ShareSummary summary = new ShareSummary(distinct.size());
+        for (Map.Entry<String, Long> file : files.entrySet()) {
+            summary.add(file.getKey(), file.getValue());
+        }
+        return summary;
+    }
+
+    // adiciona um ficheiro; devolve os bits que passaram a estar ligados (para enviar como atualização)
+    public synchronized int[] add(String fileName, long size) {
+        List<Integer> added = new ArrayList<>();
+        for (String token : tokensOf(fileName, size)) {
+            boolean changed = false;
+            for (int position : positions(token)) {
+                long bit = 1L << position;
+                if ((bits[position >>> 6] & bit) == 0) {
+                    bits[position >>> 6] |= bit;
+                    added.add(position);
+                    changed = true;
+                }
+            }
+            if (changed) tokens++;
+        }
+        return added.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // aplica a atualização de outro nó; false se o filtro mudou de tamanho entretanto
+    public synchronized boolean apply(ShareSummaryUpdate update) {
+        if (update.bitCount() != bits.length * 64) return false;
+        int[] setBits = update.setBits();
+        if (setBits == null) throw new IllegalArgumentException("Atualização do resumo de partilhas inválida");
+        for (int position : setBits) {
+            // posições vêm de outro nó: uma inválida recusa a atualização toda, antes de mexer no filtro
+            if (position < 0 || position >= bits.length * 64) {
+                throw new IllegalArgumentException("Atualização do resumo de partilhas inválida");
+            }
+        }
+        for (int position : setBits) {
+            bits[position >>> 6] |= 1L << position;
+        }
+        return true;
+    }
+
+    // junta um resumo completo do mesmo tamanho (os filtros de Bloom só ganham bits)
+    public synchronized boolean merge(ShareSummaryMessage message) {
+        if (message.bits().length != bits.length) return false;
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= message.bits()[i];
+        }
+        return true;
+    }
+
+    // demasiado cheio para a taxa de falsos positivos pretendida: deve ser reconstruído com mais bits
+    public synchronized boolean isSaturated() {
+        return tokens * BITS_PER_TOKEN > 2 * bits.length * 64;
+    }
+
+    public synchronized int getTokenCount() {
+        return tokens;
+    }
+
+    public int getBitCount() {
+        return bits.length * 64;
+    }
+
+    public synchronized ShareSummaryMessage toMessage() {
+        return new ShareSummaryMessage(bits.clone());
+    }
+
+    // false só se nenhum ficheiro partilhado pode satisfazer a pesquisa
+    public synchronized boolean mightMatch(SearchQuery query) {
+        for (String gram : requiredGrams(query)) {
+            if (!contains("n:" + gram)) return false;
+        }
+
+        if (!query.extensions().isEmpty()) {
+            boolean any = false;
+            for (String extension : query.extensions()) {
+                any |= contains("e:" + extension);
+            }
+            if (!any) return false;
+        }
+
+        if (query.minSize() > 0 || query.maxSize() < Long.MAX_VALUE) {
+            if (query.minSize() > query.maxSize()) return false;
+            boolean any = false;
+            for (int bucket = sizeBucket(query.minSize()); bucket <= sizeBucket(query.maxSize()) && !any; bucket++) {
+                any = contains("s:" + bucket);
+            }
+            return any;
+        }
+        return true;
+    }
+
+    private boolean contains(String token) {
+        for (int position : positions(token)) {
+            if ((bits[position >>> 6] & (1L << position)) == 0) return false;
+        }
+        return true;
+    }
+
+    private static Set<String> tokensOf(String fileName, long size) {
+        Set<String> tokens = new HashSet<>();
+        String name = fileName.toLowerCase(Locale.ROOT); // como no QueryMatcher
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            tokens.add("n:" + name.substring(i, i + 3));
+        }
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            tokens.add("e:" + name.substring(dot + 1));
+        }
+        tokens.add("s:" + sizeBucket(size));
+        return tokens;
+    }
+
+    // trigramas que qualquer nome que satisfaça a pesquisa tem de conter
+    private static Set<String> requiredGrams(SearchQuery query) {
+        List<String> literals = new ArrayList<>();
+        String pattern = query.pattern().toLowerCase(Locale.ROOT);
+        switch (query.mode()) {
+            case SUBSTRING, PREFIX -> literals.add(pattern);
+            case GLOB -> literals.addAll(globLiterals(pattern));
+            case REGEX -> { } // sem literais garantidos
+        }
+
+        Set<String> grams = new HashSet<>();
+        for (String literal : literals) {
+            for (int i = 0; i + 3 <= literal.length(); i++) {
+                grams.add(literal.substring(i, i + 3));
+            }
+        }
+        return grams;
+    }
+
+    // troços literais de um glob, fora de classes [..] e alternativas {..}
+    private static List<String> globLiterals(String glob) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int depth = 0; // dentro de [..] ou {..}
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length()) {
+                i++;
+                if (depth == 0) current.append(glob.charAt(i));
+                continue;
+            }
+            if (c == '[' || c == '{') depth++;
+            else if ((c == ']' || c == '}') && depth > 0) depth--;
+            else if (depth == 0 && c != '*' && c != '?') {
+                current.append(c);
+                continue;
+            }
+            literals.add(current.toString());
+            current.setLength(0);
+        }
+        literals.add(current.toString());
+        return literals;
+    }
+
+    // ordem de grandeza (potência de 2) do tamanho
+    private static int sizeBucket(long size) {
+        return 64 - Long.numberOfLeadingZeros(Math.max(0, size));
+    }
+
+    // duplo hashing sobre FNV-1a de 64 bits: igual em todos os nós
+    private int[] positions(String token) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : token.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int[] positions = new int[HASHES];
+        for (int i = 0; i < HASHES; i++) {
+            positions[i] = (h1 + i * h2) & mask;
+        }
+        return positions;
+    }
+}
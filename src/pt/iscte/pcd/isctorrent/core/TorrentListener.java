@@ -0,0 +1,48 @@
+package pt.iscte.pcd.isctorrent.core;
+
+import pt.iscte.pcd.isctorrent.download.DownloadProgress;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+
+import java.util.List;
+import java.util.Map;
+
+// eventos do nó para a interface (GUI ou consola), chamados a partir das threads de rede
+public interface TorrentListener {
+    long NO_SEARCH = 0;
+
+    // lista de conexões ativas mudou
+    void onConnectionsChanged();
+
+    // chegaram resultados de uma pesquisa
+    void onSearchResults(List<FileSearchResult> results);
+
+    // pesquisa iniciada neste nó; os resultados dela chegam com o mesmo searchId
+    default void onSearchStarted(long searchId) {
+    }
+
+    // resultados de uma pesquisa identificada: páginas tardias de pesquisas anteriores trazem outro searchId
+    // (NO_SEARCH se não se sabe de que pesquisa são)
+    default void onSearchResults(long searchId, List<FileSearchResult> results) {
+        onSearchResults(results);
+    }
+
+    // bloco recebido de um nó, com o tempo entre pedido e resposta
+    default void onBlockReceived(String fileName, String node, int length, long latencyNanos) {
+    }
+
+    // progresso de um download em curso, no máximo um evento por download a cada PROGRESS_INTERVAL_MS;
+    // o último tem complete a true
+    default void onDownloadProgress(DownloadProgress progress) {
+    }
+
+    // ficheiro descarregado e escrito em disco
+    void onDownloadComplete(String fileName, Map<String, Integer> blocksPerNode, long elapsedTime);
+
+    // lote de ficheiros pequenos descarregado e escrito em disco
+    default void onBatchDownloadComplete(int fileCount, Map<String, Integer> blocksPerNode, long elapsedTime) {
+        onDownloadComplete(fileCount + " ficheiros", blocksPerNode, elapsedTime);
+    }
+
+    // erro que deve ser mostrado ao utilizador
+    void onError(String title, String message);
+}
@@ -0,0 +1,162 @@
+package pt.iscte.pcd.isctorrent.delta;
+
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.protocol.DeltaMessage;
+import pt.iscte.pcd.isctorrent.protocol.DeltaSignatureMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// transferência por diferenças ao estilo do rsync: assinatura da cópia antiga, delta e reconstrução
+public final class Delta {
+    private static final int MIN_BLOCK_SIZE = 512;
+    private static final int MAX_LITERAL = 64 * 1024; // tamanho máximo de cada literal
+
+    private Delta() {
+    }
+
+    // blocos de ~sqrt(tamanho): equilíbrio entre o tamanho da assinatura e a granularidade das alterações
+    public static int blockSizeFor(long fileSize) {
+        int size = (int) Math.sqrt((double) fileSize) & ~15;
+        return Math.max(MIN_BLOCK_SIZE, Math.min(Constants.BLOCK_SIZE, size));
+    }
+
+    // lado de quem descarrega: checksums de cada bloco completo da cópia local
+    public static DeltaSignatureMessage signature(String fileName, byte[] data) {
+        int blockSize = blockSizeFor(data.length);
+        int blocks = data.length / blockSize;
+        int[] weak = new int[blocks];
+        long[] strong = new long[blocks];
+        MessageDigest md5 = md5();
+        for (int i = 0; i < blocks; i++) {
+            weak[i] = RollingChecksum.of(data, i * blockSize, blockSize);
+            strong[i] = strongChecksum(md5, data, i * blockSize, blockSize);
+        }
+        return new DeltaSignatureMessage(fileName, blockSize, weak, strong);
+    }
+
+    // lado de quem serve: percorre a versão nova e substitui os blocos que o outro nó já tem por referências
+    public static DeltaMessage encode(String fileName, byte[] data, DeltaSignatureMessage signature) {
+        int blockSize = signature.blockSize();
+        Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+        for (int i = 0; i < signature.weak().length; i++) {
+            blocksByWeak.computeIfAbsent(signature.weak()[i], k -> new ArrayList<>(1)).add(i);
+        }
+
+        List<DeltaMessage.Op> ops = new ArrayList<>();
+        ByteArrayOutputStream literal = new ByteArrayOutputStream();
+        MessageDigest md5 = md5();
+        int position = 0;
+        RollingChecksum checksum = data.length >= blockSize ? new RollingChecksum(data, 0, blockSize) : null;
+
+        while (checksum != null && position + blockSize <= data.length) {
+            int match = -1;
+            List<Integer> candidates = blocksByWeak.get(checksum.value());
+            if (candidates != null) {
+                long strong = strongChecksum(md5, data, position, blockSize);
+                for (int block : candidates) {
+                    if (signature.strong()[block] == strong) {
+                        match = block;
+                        break;
+                    }
+                }
+            }
+
+            if (match >= 0) {
+                flushLiteral(ops, literal);
+                addCopy(ops, match);
+                position += blockSize;
+                if (position + blockSize <= data.length) {
+                    checksum = new RollingChecksum(data, position, blockSize);
+                }
+            } else {
+                literal.write(data[position]);
+                if (literal.size() >= MAX_LITERAL) flushLiteral(ops, literal);
+                if (position + blockSize < data.length) {
+                    checksum.roll(data[position], data[position + blockSize]);
+                }
+                position++;
+            }
+        }
+
+        // resto que não chega a um bloco
+        literal.write(data, position, data.length - position);
+        flushLiteral(ops, literal);
+        return new DeltaMessage(fileName, data.length, digest(data), ops);
+    }
+
+    // reconstrói a versão nova a partir da cópia antiga; null se o resultado não confere com o digest
+    public static byte[] apply(byte[] old, int blockSize, DeltaMessage delta) {
+        if (delta.fileSize() > Integer.MAX_VALUE) return null;
+        byte[] result = new byte[(int) delta.fileSize()];
+        int position = 0;
+        for (DeltaMessage.Op op : delta.ops()) {
+            int length;
+            if (op.literal() != null) {
+                length = op.literal().length;
+                if (position + length > result.length) return null;
+                System.arraycopy(op.literal(), 0, result, position, length);
+            } else {
+                int start = op.firstBlock() * blockSize;
+                length = op.blockCount() * blockSize;
+                if (start + length > old.length || position + length > result.length) return null;
+                System.arraycopy(old, start, result, position, length);
+            }
+            position += length;
+        }
+        if (position != result.length || !Arrays.equals(digest(result), delta.digest())) return null;
+        return result;
+    }
+
+    // bytes que de facto atravessam a rede no delta
+    public static long literalBytes(DeltaMessage delta) {
+        long total = 0;
+        for (DeltaMessage.Op op : delta.ops()) {
+            if (op.literal() != null) total += op.literal().length;
+        }
+        return total;
+    }
+
+    private static void addCopy(List<DeltaMessage.Op> ops, int block) {
+        // junta blocos consecutivos numa só referência
+        if (!ops.isEmpty()) {
+            DeltaMessage.Op last = ops.get(ops.size() - 1);
+            if (last.literal() == null && last.firstBlock() + last.blockCount() == block) {
+                ops.set(ops.size() - 1, new DeltaMessage.Op(last.firstBlock(), last.blockCount() + 1, null));
+                return;
+            }
+        }
+        ops.add(new DeltaMessage.Op(block, 1, null));
+    }
+
+    private static void flushLiteral(List<DeltaMessage.Op> ops, ByteArrayOutputStream literal) {
+        if (literal.size() > 0) {
+            ops.add(new DeltaMessage.Op(-1, 0, literal.toByteArray()));
+            literal.reset();
+        }
+    }
+
+    private static long strongChecksum(MessageDigest md5, byte[] data, int offset, int length) {
+        md5.update(data, offset, length);
+        return ByteBuffer.wrap(md5.digest()).getLong(); // primeiros 8 bytes chegam para confirmar o checksum fraco
+    }
+
+    private static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
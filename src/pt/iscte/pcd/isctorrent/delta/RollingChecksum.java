@@ -0,0 +1,33 @@
+package pt.iscte.pcd.isctorrent.delta;
+
+// checksum fraco do rsync: duas somas de 16 bits que avançam um byte em O(1)
+public class RollingChecksum {
+    private final int length;
+    private int a;
+    private int b;
+
+    // calcula o checksum da janela data[offset, offset + length)
+    public RollingChecksum(byte[] data, int offset, int length) {
+        this.length = length;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xff;
+            a += x;
+            b += (length - i) * x;
+        }
+    }
+
+    // desliza a janela um byte: sai out, entra in
+    public void roll(byte out, byte in) {
+        int x = out & 0xff;
+        a += (in & 0xff) - x;
+        b += a - length * x;
+    }
+
+    public int value() {
+        return (a & 0xffff) | (b << 16);
+    }
+
+    public static int of(byte[] data, int offset, int length) {
+        return new RollingChecksum(data, offset, length).value();
+    }
+}
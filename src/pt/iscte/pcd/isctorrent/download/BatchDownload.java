@@ -0,0 +1,320 @@
+package pt.iscte.pcd.isctorrent.download;
+
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.network.NodeConnection;
+import pt.iscte.pcd.isctorrent.protocol.BatchBlockAnswerMessage;
+import pt.iscte.pcd.isctorrent.protocol.BatchBlockRequestMessage;
+import pt.iscte.pcd.isctorrent.protocol.ChokeMessage;
+import pt.iscte.pcd.isctorrent.protocol.FileBlockRequestMessage;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// download de muitos ficheiros pequenos: os blocos de vários ficheiros seguem juntos em cada pedido,
+// com uma thread por nó (em vez de uma por ficheiro e nó) e uma única thread de escrita
+public class BatchDownload {
+    private static final long WAIT_MS = 500; // espera por blocos recolocados de outros nós
+
+    // estado de um ficheiro do lote
+    private static class FileState {
+        final String fileName;
+        final int size;
+        final Set<String> sources = new HashSet<>(); // nós que têm o ficheiro
+        byte[] data; // alocado no primeiro bloco
+        int nextOffset = 0; // próximo bloco por pedir
+        int receivedBytes = 0;
+        boolean done = false;
+
+        FileState(FileSearchResult file) {
+            this.fileName = file.fileName();
+            this.size = (int) file.fileSize();
+        }
+    }
+
+    private static final FileState END = new FileState(new FileSearchResult("", 0, "", 0, ""));
+
+    private final IscTorrent torrent;
+    private final String workingDirectory;
+    private final Map<String, FileState> files = new LinkedHashMap<>();
+    private final Map<String, NodeConnection> connections = new LinkedHashMap<>(); // ligação de controlo por nó
+    private final Map<String, Deque<FileState>> queuesByNode = new HashMap<>(); // ficheiros por pedir de cada nó
+    private final Deque<FileBlockRequestMessage> retryBlocks = new ArrayDeque<>(); // blocos que falharam
+    private final Map<String, Integer> blocksPerNode = new HashMap<>();
+    private final Map<String, Integer> workersPerNode = new HashMap<>(); // threads ativas por nó
+    private final BlockingQueue<FileState> completed = new LinkedBlockingQueue<>(); // para a thread de escrita
+    private final long startTime = System.currentTimeMillis();
+    private int inFlight = 0; // blocos pedidos sem resposta
+    private int finishedFiles = 0;
+    private int failedFiles = 0;
+
+    public BatchDownload(IscTorrent torrent, List<List<FileSearchResult>> selection, String workingDirectory) {
+        this.torrent = torrent;
+        this.workingDirectory = workingDirectory;
+        for (List<FileSearchResult> results : selection) {
+            FileState state = files.computeIfAbsent(results.get(0).fileName(), k -> new FileState(results.get(0)));
+            for (FileSearchResult result : results) {
+                // só nós já ligados: quem arranca o lote liga antes aos donos que faltam
+                for (NodeConnection connection : torrent.getConnectionManager().getConnectionsFor(result)) {
+                    String nodeKey = connection.getRemoteAddress() + ":" + connection.getRemotePort();
+                    connections.putIfAbsent(nodeKey, connection);
+                    if (state.sources.add(nodeKey)) {
+                        queuesByNode.computeIfAbsent(nodeKey, k -> new ArrayDeque<>()).add(state);
+                    }
+                }
+            }
+        }
+    }
+
+    public boolean hasSources() {
+        return !connections.isEmpty();
+    }
+
+    // arranca as threads de cada nó (uma por fluxo de dados) e a thread de escrita
+    public void start() {
+        int workers = Math.max(1, Constants.MAX_DATA_STREAMS_PER_PEER);
+        synchronized(this) {
+            for (String nodeKey : connections.keySet()) {
+                workersPerNode.put(nodeKey, workers);
+            }
+            for (FileState state : files.values()) {
+                if (state.size == 0) {
+                    completeFile(state); // nada a descarregar
+                } else if (state.sources.isEmpty()) {
+                    failFile(state);
+                }
+            }
+        }
+
+        Thread writer = new Thread(this::writeFiles, "batch-writer");
+        writer.start();
+        for (Map.Entry<String, NodeConnection> entry : connections.entrySet()) {
+            for (int i = 0; i < workers; i++) {
+                boolean first = i == 0;
+                new Thread(() -> download(entry.getKey(), entry.getValue(), first), "batch-" + entry.getKey()).start();
+            }
+        }
+    }
+
+    // thread por fluxo: pede lotes de blocos até não haver mais nada que o nó possa servir;
+    // sem fluxos disponíveis, só a primeira thread do nó continua, pela ligação de controlo
+    private void download(String nodeKey, NodeConnection control, boolean first) {
+        NodeConnection stream = torrent.getConnectionManager().acquireDataStream(control);
+        NodeConnection connection = stream != null ? stream : control;
+        try {
+            if (stream == null && !first) return;
+            while (true) {
+                List<FileBlockRequestMessage> batch = nextBatch(nodeKey);
+                if (batch.isEmpty()) {
+                    if (!awaitWork()) break;
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                Object response;
+                try {
+                    response = connection.request(new BatchBlockRequestMessage(batch));
+                } catch (IOException e) {
+                    requeue(batch);
+                    throw e;
+                }
+                long latency = System.nanoTime() - start;
+
+                if (response instanceof BatchBlockAnswerMessage answer && answer.data().size() == batch.size()) {
+                    saveBlocks(nodeKey, batch, answer.data(), latency);
+                } else if (response instanceof ChokeMessage choke) {
+                    // nó sem slot para nós: os blocos ficam para os outros nós e esta thread espera pela reavaliação,
+                    // sem prender o fluxo de dados durante a espera
+                    requeue(batch);
+                    if (stream != null) {
+                        torrent.getConnectionManager().releaseDataStream(stream);
+                        stream = null;
+                    }
+                    Thread.sleep(choke.retryAfterMs());
+                    stream = torrent.getConnectionManager().acquireDataStream(control);
+                    if (stream == null && !first) break; // os fluxos foram para outros downloads
+                    connection = stream != null ? stream : control;
+                } else {
+                    requeue(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Erro no download em lote de " + nodeKey + ": " + e.getMessage());
+        } finally {
+            nodeFinished(nodeKey);
+            if (stream != null) {
+                torrent.getConnectionManager().releaseDataStream(stream);
+            }
+        }
+    }
+
+    // próximos blocos a pedir ao nó, de um ou mais ficheiros, até BATCH_MAX_BYTES
+    synchronized List<FileBlockRequestMessage> nextBatch(String nodeKey) {
+        List<FileBlockRequestMessage> batch = new ArrayList<>();
+        int bytes = 0;
+
+        // primeiro os blocos que falharam noutro nó
+        Iterator<FileBlockRequestMessage> retries = retryBlocks.iterator();
+        while (retries.hasNext() && bytes < Constants.BATCH_MAX_BYTES) {
+            FileBlockRequestMessage block = retries.next();
+            if (files.get(block.fileName()).sources.contains(nodeKey)) {
+                retries.remove();
+                batch.add(block);
+                bytes += block.length();
+            }
+        }
+
+        Deque<FileState> queue = queuesByNode.getOrDefault(nodeKey, new ArrayDeque<>());
+        while (bytes < Constants.BATCH_MAX_BYTES && !queue.isEmpty()) {
+            FileState state = queue.peek();
+            if (state.done || state.nextOffset >= state.size) {
+                queue.poll(); // já pedido todo (possivelmente por outro nó)
+                continue;
+            }
+            int length = Math.min(Constants.BLOCK_SIZE, state.size - state.nextOffset);
+            batch.add(new FileBlockRequestMessage(state.fileName, state.nextOffset, length));
+            state.nextOffset += length;
+            bytes += length;
+        }
+
+        inFlight += batch.size();
+        return batch;
+    }
+
+    // espera por blocos recolocados enquanto outros nós têm pedidos em curso
+    private synchronized boolean awaitWork() {
+        if (isFinished() || (inFlight == 0 && retryBlocks.isEmpty())) return false;
+        try {
+            wait(WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !isFinished();
+    }
+
+    synchronized void saveBlocks(String nodeKey, List<FileBlockRequestMessage> batch, List<byte[]> data, long latency) {
+        inFlight -= batch.size();
+        int received = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            FileBlockRequestMessage block = batch.get(i);
+            FileState state = files.get(block.fileName());
+            byte[] blockData = data.get(i);
+            if (state.done) continue;
+
+            if (blockData == null || blockData.length != block.length()) {
+                // o nó não tem o bloco: outro nó que tenha o ficheiro trata dele
+                state.sources.remove(nodeKey);
+                if (state.sources.isEmpty()) {
+                    failFile(state);
+                } else {
+                    retryBlocks.add(block);
+                }
+                continue;
+            }
+
+            if (state.data == null) state.data = new byte[state.size];
+            System.arraycopy(blockData, 0, state.data, (int) block.offset(), blockData.length);
+            state.receivedBytes += blockData.length;
+            received++;
+            torrent.notifyBlockReceived(block.fileName(), nodeKey, blockData.length, latency);
+            if (state.receivedBytes >= state.size) {
+                completeFile(state);
+            }
+        }
+        blocksPerNode.merge(nodeKey, received, Integer::sum);
+        torrent.getMetrics().recordBlockLatency(latency);
+        notifyAll();
+    }
+
+    private synchronized void requeue(List<FileBlockRequestMessage> batch) {
+        inFlight -= batch.size();
+        retryBlocks.addAll(batch);
+        notifyAll();
+    }
+
+    // a última thread do nó terminou: os ficheiros que só ele tinha falham
+    private synchronized void nodeFinished(String nodeKey) {
+        int remaining = workersPerNode.merge(nodeKey, -1, Integer::sum);
+        if (remaining > 0) return;
+        for (FileState state : files.values()) {
+            if (state.sources.remove(nodeKey) && state.sources.isEmpty() && !state.done) {
+                failFile(state);
+            }
+        }
+        retryBlocks.removeIf(block -> files.get(block.fileName()).done);
+        notifyAll();
+    }
+
+    private void completeFile(FileState state) {
+        state.done = true;
+        finishedFiles++;
+        completed.add(state);
+        if (isFinished()) completed.add(END);
+    }
+
+    private void failFile(FileState state) {
+        state.done = true;
+        failedFiles++;
+        state.data = null;
+        System.err.println("Ficheiro sem fontes disponíveis: " + state.fileName);
+        if (isFinished()) completed.add(END);
+    }
+
+    // ficheiro descarregado mas não gravado: passa a contar como falhado
+    private synchronized void writeFailed() {
+        finishedFiles--;
+        failedFiles++;
+    }
+
+    private boolean isFinished() {
+        return finishedFiles + failedFiles >= files.size();
+    }
+
+    // thread de escrita: grava cada ficheiro assim que fica completo
+    private void writeFiles() {
+        int written = 0;
+        try {
+            while (true) {
+                FileState state = completed.take();
+                if (state == END) break;
+
+                File file = new File(workingDirectory, state.fileName);
+                try (FileOutputStream fos = new FileOutputStream(file)) {
+                    if (state.data != null) fos.write(state.data);
+                } catch (IOException e) {
+                    // só este ficheiro falha: os restantes da fila continuam a ser gravados
+                    System.err.println("Erro na escrita de " + state.fileName + ": " + e.getMessage());
+                    state.data = null;
+                    writeFailed();
+                    file.delete(); // não deixa um ficheiro incompleto na pasta partilhada
+                    continue;
+                }
+                state.data = null; // liberta memória
+                torrent.addSharedFile(file);
+                written++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        Map<String, Integer> stats;
+        int failed;
+        synchronized(this) {
+            stats = new HashMap<>(blocksPerNode);
+            failed = failedFiles;
+        }
+        if (failed > 0) {
+            torrent.notifyError("Erro de Download", failed + " ficheiro(s) do lote não foram descarregados ou gravados");
+        }
+        torrent.notifyBatchDownloadComplete(written, stats, System.currentTimeMillis() - startTime);
+    }
+}
@@ -0,0 +1,171 @@
+package pt.iscte.pcd.isctorrent.download;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+// blocos por pedir de um download, agrupados pelo número de fontes que os têm (rarest-first)
+// não é thread-safe: protegido pelo lock do DownloadTasksManager
+class BlockAvailability {
+    private final int totalBlocks;
+    private final BitSet pending; // blocos ainda não pedidos
+    private final int[] availability; // número de fontes com cada bloco
+    private final List<BitSet> byAvailability = new ArrayList<>(); // [a] = blocos pendentes com a fontes
+    private final Map<String, BitSet> sourceHave = new HashMap<>(); // blocos de cada fonte
+    private final Set<String> completeSources = new HashSet<>();
+
+    BlockAvailability(int totalBlocks) {
+        this.totalBlocks = totalBlocks;
+        this.pending = new BitSet(totalBlocks);
+        this.pending.set(0, totalBlocks);
+        this.availability = new int[totalBlocks];
+        bucket(0).set(0, totalBlocks);
+    }
+
+    // nova fonte, considerada completa até chegar o seu bitmap
+    void addSource(String nodeKey) {
+        if (sourceHave.containsKey(nodeKey)) return;
+        BitSet all = new BitSet(totalBlocks);
+        all.set(0, totalBlocks);
+        setSourceBitfield(nodeKey, all);
+    }
+
+    // substitui os blocos conhecidos da fonte, atualizando as contagens pela diferença
+    void setSourceBitfield(String nodeKey, BitSet have) {
+        BitSet old = sourceHave.getOrDefault(nodeKey, new BitSet(totalBlocks));
+        BitSet added = (BitSet) have.clone();
+        added.andNot(old);
+        BitSet removed = (BitSet) old.clone();
+        removed.andNot(have);
+
+        for (int i = added.nextSetBit(0); i >= 0 && i < totalBlocks; i = added.nextSetBit(i + 1)) {
+            changeAvailability(i, 1);
+        }
+        for (int i = removed.nextSetBit(0); i >= 0 && i < totalBlocks; i = removed.nextSetBit(i + 1)) {
+            changeAvailability(i, -1);
+        }
+
+        BitSet copy = (BitSet) have.clone();
+        sourceHave.put(nodeKey, copy);
+        if (copy.cardinality() >= totalBlocks) {
+            completeSources.add(nodeKey);
+        } else {
+            completeSources.remove(nodeKey);
+        }
+    }
+
+    // atualização incremental de um bloco da fonte
+    void sourceHas(String nodeKey, int index) {
+        if (index < 0 || index >= totalBlocks) return;
+        BitSet have = sourceHave.computeIfAbsent(nodeKey, k -> new BitSet(totalBlocks));
+        if (!have.get(index)) {
+            have.set(index);
+            changeAvailability(index, 1);
+            if (have.cardinality() >= totalBlocks) completeSources.add(nodeKey);
+        }
+    }
+
+    // a fonte respondeu que não tem o bloco
+    void sourceLacks(String nodeKey, int index) {
+        if (index < 0 || index >= totalBlocks) return;
+        BitSet have = sourceHave.get(nodeKey);
+        if (have != null && have.get(index)) {
+            have.clear(index);
+            changeAvailability(index, -1);
+            completeSources.remove(nodeKey);
+        }
+    }
+
+    void removeSource(String nodeKey) {
+        if (sourceHave.containsKey(nodeKey)) {
+            setSourceBitfield(nodeKey, new BitSet(totalBlocks));
+            sourceHave.remove(nodeKey);
+        }
+    }
+
+    // retira o bloco pendente mais raro que a fonte tem, ou -1; entre os igualmente raros continua a partir
+    // de hint (o bloco seguinte ao último do fluxo), ou de um ponto ao acaso, para cada fluxo ler por ordem
+    int next(String nodeKey) {
+        return next(nodeKey, -1);
+    }
+
+    int next(String nodeKey, int hint) {
+        BitSet have = nodeKey != null ? sourceHave.get(nodeKey) : null;
+        boolean anyBlock = have == null || completeSources.contains(nodeKey);
+
+        for (int a = have == null ? 0 : 1; a < byAvailability.size(); a++) {
+            BitSet candidates = byAvailability.get(a);
+            if (candidates.isEmpty()) continue;
+
+            int start = hint >= 0 && hint < totalBlocks ? hint : ThreadLocalRandom.current().nextInt(totalBlocks);
+            int index = anyBlock ? firstFrom(candidates, start) : firstCommonFrom(candidates, have, start);
+            if (index >= 0) {
+                take(index);
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    void requeue(int index) {
+        if (index < 0 || index >= totalBlocks || pending.get(index)) return;
+        pending.set(index);
+        bucket(availability[index]).set(index);
+    }
+
+    // bloco obtido por outra via (ex: cópia local): deixa de estar pendente
+    void remove(int index) {
+        if (index >= 0 && index < totalBlocks && pending.get(index)) {
+            take(index);
+        }
+    }
+
+    // primeiro bloco pendente que nenhuma fonte tem, ou -1
+    int firstUnavailable() {
+        return bucket(0).nextSetBit(0);
+    }
+
+    boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    int pendingCount() {
+        return pending.cardinality();
+    }
+
+    private void take(int index) {
+        pending.clear(index);
+        bucket(availability[index]).clear(index);
+    }
+
+    private void changeAvailability(int index, int delta) {
+        int old = availability[index];
+        int updated = Math.max(0, old + delta);
+        availability[index] = updated;
+        if (pending.get(index)) {
+            bucket(old).clear(index);
+            bucket(updated).set(index);
+        }
+    }
+
+    private BitSet bucket(int a) {
+        while (byAvailability.size() <= a) {
+            byAvailability.add(new BitSet(totalBlocks));
+        }
+        return byAvailability.get(a);
+    }
+
+    private static int firstFrom(BitSet candidates, int start) {
+        int index = candidates.nextSetBit(start);
+        return index >= 0 ? index : candidates.nextSetBit(0);
+    }
+
+    private static int firstCommonFrom(BitSet candidates, BitSet have, int start) {
+        for (int i = candidates.nextSetBit(start); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (have.get(i)) return i;
+        }
+        for (int i = candidates.nextSetBit(0); i >= 0 && i < start; i = candidates.nextSetBit(i + 1)) {
+            if (have.get(i)) return i;
+        }
+        return -1;
+    }
+}
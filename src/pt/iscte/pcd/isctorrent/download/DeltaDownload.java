@@ -0,0 +1,100 @@
+package pt.iscte.pcd.isctorrent.download;
+
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.delta.Delta;
+import pt.iscte.pcd.isctorrent.jfr.FileCommitEvent;
+import pt.iscte.pcd.isctorrent.network.NodeConnection;
+import pt.iscte.pcd.isctorrent.protocol.ChokeMessage;
+import pt.iscte.pcd.isctorrent.protocol.DeltaMessage;
+import pt.iscte.pcd.isctorrent.protocol.DeltaSignatureMessage;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+
+// atualiza uma cópia local desatualizada pedindo só as diferenças a um nó (o primeiro com slot para nós);
+// se algo falhar, faz o download normal por blocos
+public class DeltaDownload implements Runnable {
+    private final IscTorrent torrent;
+    private final FileSearchResult file;
+    private final List<NodeConnection> sources;
+    private final String workingDirectory;
+
+    public DeltaDownload(IscTorrent torrent, FileSearchResult file, List<NodeConnection> sources,
+                         String workingDirectory) {
+        this.torrent = torrent;
+        this.file = file;
+        this.sources = sources;
+        this.workingDirectory = workingDirectory;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (sync()) return;
+        } catch (IOException e) {
+            System.err.println("Falha na transferência por diferenças de " + file.fileName() + ": " + e.getMessage());
+        }
+        torrent.getDownloadManager().startDownload(file, sources, workingDirectory);
+    }
+
+    private boolean sync() throws IOException {
+        long startTime = System.currentTimeMillis();
+        File local = new File(workingDirectory, file.fileName());
+        byte[] old = Files.readAllBytes(local.toPath());
+        DeltaSignatureMessage signature = Delta.signature(file.fileName(), old);
+
+        // um nó sem slot responde com ChokeMessage: passa ao seguinte; se todos recusarem,
+        // o download por blocos reparte o ficheiro pelos nós à medida que ganha slots
+        NodeConnection control = null;
+        Object response = null;
+        for (NodeConnection source : sources) {
+            control = source;
+            response = requestDelta(source, signature);
+            if (!(response instanceof ChokeMessage)) break;
+        }
+        if (!(response instanceof DeltaMessage delta)) return false; // o nó não tem o ficheiro ou não tem slot
+
+        byte[] data = Delta.apply(old, signature.blockSize(), delta);
+        if (data == null) return false; // cópia antiga mudou entretanto ou delta inválido
+
+        // escreve ao lado e substitui, para nunca deixar o ficheiro a meio
+        File temp = new File(workingDirectory, file.fileName() + ".delta");
+        FileCommitEvent event = new FileCommitEvent();
+        event.begin();
+        Files.write(temp.toPath(), data);
+        Files.move(temp.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = file.fileName();
+            event.size = data.length;
+            event.commit();
+        }
+        torrent.addSharedFile(local);
+
+        long literal = Delta.literalBytes(delta);
+        System.out.println("Delta de " + file.fileName() + ": " + literal + " de " + data.length + " bytes transferidos");
+        String nodeKey = control.getRemoteAddress() + ":" + control.getRemotePort();
+        int blocks = (int) ((literal + Constants.BLOCK_SIZE - 1) / Constants.BLOCK_SIZE); // equivalente em blocos
+        torrent.notifyDownloadComplete(file.fileName(), Map.of(nodeKey, blocks),
+                System.currentTimeMillis() - startTime);
+        return true;
+    }
+
+    private Object requestDelta(NodeConnection control, DeltaSignatureMessage signature) throws IOException {
+        NodeConnection stream = torrent.getConnectionManager().acquireDataStream(control);
+        NodeConnection connection = stream != null ? stream : control;
+        try {
+            return connection.request(signature);
+        } finally {
+            if (stream != null) {
+                torrent.getConnectionManager().releaseDataStream(stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package pt.iscte.pcd.isctorrent.download;
+
+import java.util.List;
+import java.util.Locale;
+
+// estado de um download em curso, publicado periodicamente pelo ProgressTracker;
+// débitos em bytes por segundo (média móvel) e etaMillis -1 enquanto não há débito para estimar
+public record DownloadProgress(String fileName, long fileSize, long receivedBytes, int receivedBlocks, int totalBlocks,
+                               double bytesPerSecond, long etaMillis, long elapsedMillis, boolean stalled,
+                               boolean complete, List<PeerProgress> peers) {
+
+    // contribuição de uma fonte; parada se não entrega blocos há PROGRESS_STALL_MS
+    public record PeerProgress(String node, long receivedBytes, double bytesPerSecond, long idleMillis,
+                               boolean stalled) {
+    }
+
+    public DownloadProgress {
+        peers = List.copyOf(peers);
+    }
+
+    public double fraction() {
+        return fileSize == 0 ? 1 : (double) receivedBytes / fileSize;
+    }
+
+    // ex: "video.mp4 42% 1.3 MB/s ETA 12s (2 fontes, 1 parada)"
+    @Override
+    public String toString() {
+        long stalledPeers = peers.stream().filter(PeerProgress::stalled).count();
+        String eta = complete ? "completo" : stalled ? "parado" : etaMillis < 0 ? "ETA ?" : "ETA " + formatTime(etaMillis);
+        return String.format(Locale.ROOT, "%s %d%% %.1f MB/s %s (%d fontes%s)", fileName, (int) (fraction() * 100),
+                bytesPerSecond / (1024 * 1024), eta, peers.size(),
+                stalledPeers > 0 ? ", " + stalledPeers + " parada" + (stalledPeers > 1 ? "s" : "") : "");
+    }
+
+    private static String formatTime(long millis) {
+        long seconds = (millis + 999) / 1000;
+        return seconds < 60 ? seconds + "s" : seconds / 60 + "m" + String.format("%02d", seconds % 60) + "s";
+    }
+}
@@ -1,44 +1,118 @@
 package pt.iscte.pcd.isctorrent.download;
 
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.jfr.BlockRequestEvent;
 import pt.iscte.pcd.isctorrent.network.NodeConnection;
+import pt.iscte.pcd.isctorrent.protocol.BlockUnavailableMessage;
+import pt.iscte.pcd.isctorrent.protocol.ChokeMessage;
 import pt.iscte.pcd.isctorrent.protocol.FileBlockAnswerMessage;
 import pt.iscte.pcd.isctorrent.protocol.FileBlockRequestMessage;
 import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
 
-// thread worker que descarrega blocos de um nó específico
+import java.io.IOException;
+
+// thread worker que descarrega blocos de um nó específico, por um fluxo de dados exclusivo
 public class DownloadTask implements Runnable {
     private final FileSearchResult fileInfo;
     private final NodeConnection connection;
     private final DownloadTasksManager manager;
+    private final boolean dataStream; // fluxo emprestado pelo ConnectionManager, devolvido no fim
+    private volatile boolean stopped = false;
+    private volatile boolean finished = false;
+    private long retryAfterMs = 0; // a fonte recusou por falta de slot: tentar outra vez depois disto
 
     public DownloadTask(FileSearchResult fileInfo, NodeConnection connection, DownloadTasksManager manager) {
+        this(fileInfo, connection, manager, false);
+    }
+
+    public DownloadTask(FileSearchResult fileInfo, NodeConnection connection, DownloadTasksManager manager,
+                        boolean dataStream) {
         this.fileInfo = fileInfo;
         this.connection = connection;
         this.manager = manager;
+        this.dataStream = dataStream;
     }
 
     @Override
     public void run() {
         try {
+            String nodeKey = connection.getRemoteAddress() + ":" + connection.getRemotePort();
+            int hint = -1; // bloco seguinte ao último, para pedir por ordem (ajuda a leitura adiante do outro nó)
             // ciclo de download: pede blocos até ficheiro estar completo
-            while (!manager.isDownloadComplete(fileInfo.fileName())) {
-                FileBlockRequestMessage request = manager.getNextBlock(fileInfo.fileName());
-                if (request == null) { // não há mais blocos
-                    break;
+            while (!stopped && !manager.isDownloadComplete(fileInfo.fileName())) {
+                FileBlockRequestMessage request = manager.getNextBlock(fileInfo.fileName(), nodeKey, hint);
+                if (request == null) {
+                    if (Thread.currentThread().isInterrupted()) break; // interrompida: sem esperas, o ciclo rodaria em vão
+                    if (manager.hasPendingBlocks(fileInfo.fileName())) {
+                        if (manager.failIfStalled(fileInfo.fileName())) break;
+                        continue; // a fonte ainda não tem nenhum dos blocos em falta
+                    }
+                    break; // não há mais blocos
                 }
 
-                connection.sendMessage(request); // envia pedido do bloco
-                Object response = connection.receiveResponse();
+                hint = (int) (request.offset() / Constants.BLOCK_SIZE) + 1;
+
+                BlockRequestEvent event = new BlockRequestEvent();
+                event.begin();
+                long start = System.nanoTime();
+                Object response;
+                try {
+                    response = connection.request(request); // envia pedido do bloco e espera pela resposta
+                } catch (IOException e) {
+                    manager.requeueBlock(request); // outro fluxo descarrega este bloco
+                    throw e;
+                }
+                long latency = System.nanoTime() - start;
+                event.end();
+                manager.getTorrent().getMetrics().recordBlockLatency(latency);
+
+                if (event.shouldCommit()) {
+                    event.peer = nodeKey;
+                    event.file = request.fileName();
+                    event.offset = request.offset();
+                    event.size = request.length();
+                    event.success = response instanceof FileBlockAnswerMessage;
+                    event.commit();
+                }
 
                 if (response instanceof FileBlockAnswerMessage answer) {
                     manager.saveBlock(fileInfo.fileName(), answer, connection); // guarda bloco recebido
+                    manager.getTorrent().notifyBlockReceived(fileInfo.fileName(), nodeKey,
+                            request.length(), latency);
+                } else if (response instanceof BlockUnavailableMessage) {
+                    manager.blockUnavailable(nodeKey, request); // fonte parcial sem este bloco
+                } else if (response instanceof ChokeMessage choke) {
+                    // fonte sem slot para nós: o bloco fica para os outros fluxos e esta thread sai já,
+                    // libertando o fluxo durante a espera; o gestor arranca outra depois de retryAfterMs
+                    manager.requeueBlock(request);
+                    retryAfterMs = Math.max(1, choke.retryAfterMs());
+                    break;
                 } else {
                     manager.requeueBlock(request); // recoloca bloco na fila se erro
                 }
             }
         } catch (Exception e) {
             System.err.println("Erro no download de " + fileInfo.fileName() + ": " + e.getMessage());
-            Thread.currentThread().interrupt();
+        } finally {
+            finished = true;
+            if (dataStream) {
+                manager.getTorrent().getConnectionManager().releaseDataStream(connection);
+            }
+            if (retryAfterMs > 0) {
+                manager.retrySourceLater(fileInfo.fileName(), connection.getRemoteAddress() + ":"
+                        + connection.getRemotePort(), retryAfterMs);
+            } else {
+                manager.taskFinished(fileInfo.fileName());
+            }
         }
     }
-}
\ No newline at end of file
+
+    // pede à thread que termine depois do bloco em curso
+    public void stop() {
+        stopped = true;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+}
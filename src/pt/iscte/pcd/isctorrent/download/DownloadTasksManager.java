@@ -1,12 +1,13 @@
 package pt.iscte.pcd.isctorrent.download;
 
+import pt.iscte.pcd.isctorrent.core.BlockIndex;
 import pt.iscte.pcd.isctorrent.core.Constants;
 import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.core.QueryMatcher;
 import pt.iscte.pcd.isctorrent.network.NodeConnection;
-import pt.iscte.pcd.isctorrent.protocol.FileBlockAnswerMessage;
-import pt.iscte.pcd.isctorrent.protocol.FileBlockRequestMessage;
-import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+import pt.iscte.pcd.isctorrent.protocol.*;
 
+import java.io.IOException;
 import java.util.*;
 
 // coordena downloads de ficheiros conforme especificado no enunciado
@@ -14,17 +15,35 @@ public class DownloadTasksManager {
 
     // contexto de cada download em curso
     private static class DownloadContext {
-        final Queue<FileBlockRequestMessage> pendingBlocks = new LinkedList<>(); // blocos por descarregar
+        final FileSearchResult file;
+        final String fileName;
+        final long fileSize;
         final byte[] fileData; // dados do ficheiro em memória
         final Map<String, Integer> blocksPerNode = new HashMap<>(); // contador por nó para estatísticas
         final long startTime = System.currentTimeMillis();
+        long lastProgress = startTime; // último bloco recebido ou fonte nova
         int receivedBlocks = 0;
         final int totalBlocks;
+        final BlockAvailability blocks; // blocos por pedir, por raridade
+        final BitSet received; // blocos já recebidos, servidos a outros nós
+        final List<NodeConnection> interested = new ArrayList<>(); // nós a avisar de cada bloco novo
+        final Map<String, StreamTuner.PeerStreams> peers = new LinkedHashMap<>(); // fontes atuais e os seus fluxos
         FileWriterThread writer; // thread dedicada à escrita
 
         public DownloadContext(FileSearchResult file) {
+            this.file = file;
+            this.fileName = file.fileName();
+            this.fileSize = file.fileSize();
             this.fileData = new byte[(int) file.fileSize()];
             this.totalBlocks = (int)((file.fileSize() + Constants.BLOCK_SIZE - 1) / Constants.BLOCK_SIZE);
+            this.blocks = new BlockAvailability(totalBlocks);
+            this.received = new BitSet(totalBlocks);
+        }
+
+        FileBlockRequestMessage request(int index) {
+            long offset = (long) index * Constants.BLOCK_SIZE;
+            int length = (int) Math.min(Constants.BLOCK_SIZE, fileSize - offset);
+            return new FileBlockRequestMessage(fileName, offset, length);
         }
 
         public boolean isComplete() {
@@ -32,81 +51,456 @@ public class DownloadTasksManager {
         }
     }
 
+    private static final long AVAILABILITY_WAIT_MS = 500; // espera por blocos novos das fontes parciais
+    private static final String LOCAL_SOURCE = "local"; // blocos copiados de ficheiros locais
+
     private final Map<String, DownloadContext> activeDownloads; // downloads ativos
     private final IscTorrent torrent;
+    private final ProgressTracker progress; // eventos de progresso agregados, fora do caminho de cada bloco
 
     public DownloadTasksManager(IscTorrent torrent) {
         this.torrent = torrent;
         this.activeDownloads = new HashMap<>();
+        this.progress = new ProgressTracker(torrent);
     }
 
-    // inicia download com uma thread por nó
-    public synchronized void startDownload(FileSearchResult file, List<NodeConnection> sources, String workingDirectory) {
+    // inicia download com uma ou mais threads por nó, cada uma com o seu fluxo de dados;
+    // se o ficheiro já está a ser descarregado, as fontes novas juntam-se ao download em curso
+    public void startDownload(FileSearchResult file, List<NodeConnection> sources, String workingDirectory) {
         String fileName = file.fileName();
-        if (activeDownloads.containsKey(fileName)) return; // já está a descarregar
+        boolean started;
+        synchronized(this) {
+            started = !activeDownloads.containsKey(fileName);
+            if (started) {
+                DownloadContext context = new DownloadContext(file);
+                activeDownloads.put(fileName, context);
+                progress.started(fileName, context.fileSize, context.totalBlocks);
 
-        DownloadContext context = new DownloadContext(file);
-        activeDownloads.put(fileName, context);
+                // thread dedicada para escrita em disco quando completo
+                FileWriterThread writer = new FileWriterThread(fileName, file.fileName(), workingDirectory, this);
+                context.writer = writer;
+                new Thread(writer).start();
+            }
+        }
 
-        // inicializa contadores por nó
-        for (NodeConnection conn : sources) {
-            String nodeKey = conn.getRemoteAddress() + ":" + conn.getRemotePort();
-            context.blocksPerNode.put(nodeKey, 0);
+        // fora do lock: copia o que já existe localmente e junta as fontes
+        if (started) {
+            torrent.publishShared(fileName, file.fileSize()); // servido como fonte parcial
+            copyLocalBlocks(file, sources);
+        }
+        for (NodeConnection connection : sources) {
+            addSource(fileName, connection, true);
         }
 
-        // cria lista de todos os blocos a descarregar
-        for (long i = 0; i < context.totalBlocks; i++) {
-            long offset = i * Constants.BLOCK_SIZE;
-            int length = (int) Math.min(Constants.BLOCK_SIZE, file.fileSize() - offset);
-            context.pendingBlocks.offer(new FileBlockRequestMessage(fileName, offset, length));
+        if (started && Constants.MAX_DATA_STREAMS_PER_PEER > Constants.DATA_STREAMS_PER_PEER) {
+            Thread tuner = new Thread(new StreamTuner(file, this), "stream-tuner-" + fileName);
+            tuner.setDaemon(true);
+            tuner.start();
         }
+    }
 
-        // lança uma thread por nó conforme especificado
-        for (NodeConnection connection : sources) {
-            new Thread(new DownloadTask(file, connection, this)).start();
+    // junta uma fonte a um download em curso: conta como completa até enviar o seu bitmap
+    // e recebe logo threads de download; devolve false se já era fonte
+    public boolean addSource(String fileName, NodeConnection connection, boolean requestBitfield) {
+        String nodeKey = connection.getRemoteAddress() + ":" + connection.getRemotePort();
+        StreamTuner.PeerStreams peer;
+        FileSearchResult file;
+        synchronized(this) {
+            DownloadContext context = activeDownloads.get(fileName);
+            if (context == null || context.isComplete() || context.peers.containsKey(nodeKey)) return false;
+
+            peer = new StreamTuner.PeerStreams(connection);
+            context.peers.put(nodeKey, peer);
+            context.lastProgress = System.currentTimeMillis();
+            context.blocksPerNode.putIfAbsent(nodeKey, 0);
+            context.blocks.addSource(nodeKey);
+            progress.sourceAdded(fileName, nodeKey);
+            file = context.file;
+            notifyAll();
         }
 
-        // thread dedicada para escrita em disco quando completo
-        FileWriterThread writer = new FileWriterThread(fileName, file.fileName(), workingDirectory, this);
-        context.writer = writer;
-        new Thread(writer).start();
+        if (requestBitfield) {
+            try {
+                connection.sendMessage(new BitfieldRequest(fileName));
+            } catch (IOException e) {
+                System.err.println("Falha ao pedir blocos disponíveis: " + e.getMessage());
+            }
+        }
+        for (int i = 0; i < Math.max(1, Constants.DATA_STREAMS_PER_PEER); i++) {
+            startStream(file, peer);
+        }
+        return true;
     }
 
-    // coordenação: obtém próximo bloco a descarregar
+    // novo nó ligado: pergunta-lhe por cada download em curso; quem tiver blocos passa a fonte
+    public void peerConnected(NodeConnection connection) {
+        List<String> fileNames;
+        synchronized(this) {
+            fileNames = new ArrayList<>(activeDownloads.keySet());
+        }
+        for (String fileName : fileNames) {
+            try {
+                connection.sendMessage(new BitfieldRequest(fileName));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    // ligação de controlo a um nó caiu: deixa de contar com os seus blocos e pára as suas threads
+    public void peerDisconnected(NodeConnection connection) {
+        String nodeKey = connection.getRemoteAddress() + ":" + connection.getRemotePort();
+        List<StreamTuner.PeerStreams> removed = new ArrayList<>();
+        synchronized(this) {
+            for (DownloadContext context : activeDownloads.values()) {
+                context.interested.remove(connection);
+                StreamTuner.PeerStreams peer = context.peers.get(nodeKey);
+                if (peer != null && peer.control == connection) {
+                    context.peers.remove(nodeKey);
+                    context.blocks.removeSource(nodeKey);
+                    progress.sourceRemoved(context.fileName, nodeKey);
+                    removed.add(peer);
+                }
+            }
+            notifyAll();
+        }
+        for (StreamTuner.PeerStreams peer : removed) {
+            synchronized(peer) {
+                peer.tasks.forEach(DownloadTask::stop);
+            }
+        }
+    }
+
+    synchronized List<StreamTuner.PeerStreams> getPeers(String fileName) {
+        DownloadContext context = activeDownloads.get(fileName);
+        return context != null ? new ArrayList<>(context.peers.values()) : List.of();
+    }
+
+    // acrescenta uma thread de download para o nó com um novo fluxo de dados;
+    // sem fluxos disponíveis, a primeira thread usa a própria conexão de controlo
+    boolean startStream(FileSearchResult file, StreamTuner.PeerStreams peer) {
+        NodeConnection stream = torrent.getConnectionManager().acquireDataStream(peer.control);
+        DownloadTask task;
+        synchronized(peer) {
+            if (stream != null) {
+                task = new DownloadTask(file, stream, this, true);
+            } else if (peer.tasks.isEmpty()) {
+                task = new DownloadTask(file, peer.control, this);
+            } else {
+                return false;
+            }
+            peer.tasks.add(task);
+        }
+        new Thread(task).start();
+        return true;
+    }
+
+    // uma thread de download terminou: se era a última e ainda há blocos por receber (ex: recolocados
+    // depois de um erro, quando as outras já tinham saído do ciclo), arranca um fluxo novo em cada fonte ligada
+    void taskFinished(String fileName) {
+        FileSearchResult file;
+        List<StreamTuner.PeerStreams> restart = new ArrayList<>();
+        synchronized(this) {
+            DownloadContext context = activeDownloads.get(fileName);
+            if (context == null || context.isComplete() || !context.blocks.hasPending()) return;
+            for (StreamTuner.PeerStreams peer : context.peers.values()) {
+                if (peer.activeStreams() > 0) return; // ainda há quem vá buscar os blocos recolocados
+            }
+            for (StreamTuner.PeerStreams peer : context.peers.values()) {
+                if (peer.control.isOpen()) restart.add(peer);
+            }
+            file = context.file;
+        }
+        for (StreamTuner.PeerStreams peer : restart) {
+            startStream(file, peer);
+        }
+    }
+
+    // a fonte recusou por falta de slot e a thread saiu: depois da espera arranca outra para a mesma fonte,
+    // se ainda for fonte do download (sem reiniciar já as outras, como faria o taskFinished)
+    void retrySourceLater(String fileName, String nodeKey, long delayMs) {
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            FileSearchResult file;
+            StreamTuner.PeerStreams peer;
+            synchronized(this) {
+                DownloadContext context = activeDownloads.get(fileName);
+                if (context == null || context.isComplete()) return;
+                peer = context.peers.get(nodeKey);
+                if (peer == null || !peer.control.isOpen()) return;
+                file = context.file;
+            }
+            peer.activeStreams(); // descarta as threads terminadas antes de escolher o fluxo
+            startStream(file, peer);
+        }, "retry-source-" + nodeKey);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // coordenação: obtém próximo bloco a descarregar, sem preferência de fonte
     public synchronized FileBlockRequestMessage getNextBlock(String fileName) {
+        return getNextBlock(fileName, null, -1);
+    }
+
+    // coordenação: obtém o bloco pendente mais raro que a fonte tem; se a fonte ainda não tem
+    // nenhum, espera um pouco por novidades e devolve null (ver hasPendingBlocks)
+    public synchronized FileBlockRequestMessage getNextBlock(String fileName, String nodeKey, int hint) {
         DownloadContext context = activeDownloads.get(fileName);
         if (context == null || context.isComplete()) return null;
 
-        return context.pendingBlocks.poll(); // retorna próximo bloco ou null
+        int index = context.blocks.next(nodeKey, hint);
+        if (index < 0 && context.blocks.hasPending()) {
+            try {
+                wait(AVAILABILITY_WAIT_MS); // acorda com bitmaps, HAVE ou blocos recolocados
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            context = activeDownloads.get(fileName);
+            if (context == null || context.isComplete()) return null;
+            index = context.blocks.next(nodeKey, hint);
+        }
+        return index >= 0 ? context.request(index) : null;
     }
 
-    // coordenação: guarda bloco recebido e atualiza estatísticas
-    public synchronized void saveBlock(String fileName, FileBlockAnswerMessage answer, NodeConnection connection) {
+    // ainda há blocos por pedir (que outra fonte poderá ter mais tarde)
+    public synchronized boolean hasPendingBlocks(String fileName) {
         DownloadContext context = activeDownloads.get(fileName);
-        if (context == null) return;
+        return context != null && !context.isComplete() && context.blocks.hasPending();
+    }
+
+    // há blocos que nenhuma fonte tem e nada chegou há DOWNLOAD_STALL_TIMEOUT_MS: o download falha
+    // em vez de esperar para sempre; devolve true se falhou (as threads das outras fontes saem sozinhas)
+    public boolean failIfStalled(String fileName) {
+        int missing;
+        synchronized(this) {
+            DownloadContext context = activeDownloads.get(fileName);
+            if (context == null || context.isComplete()) return false;
+            missing = context.blocks.firstUnavailable();
+            if (missing < 0 || System.currentTimeMillis() - context.lastProgress < Constants.DOWNLOAD_STALL_TIMEOUT_MS) {
+                return false;
+            }
+            if (context.writer != null) context.writer.cancel();
+            removeDownload(fileName);
+        }
+        torrent.notifyError("Erro de Download", "Nenhuma fonte tem o bloco " + missing + " de " + fileName);
+        return true;
+    }
+
+    // blocos cujo conteúdo já existe localmente (noutro ficheiro ou noutra versão) são lidos do disco
+    // em vez de pedidos à rede; os hashes vêm da primeira fonte
+    private void copyLocalBlocks(FileSearchResult file, List<NodeConnection> sources) {
+        if (sources.isEmpty() || !torrent.getFileManager().hasIndexedBlocks()) return;
+
+        NodeConnection control = sources.get(0);
+        NodeConnection stream = torrent.getConnectionManager().acquireDataStream(control);
+        NodeConnection connection = stream != null ? stream : control;
+        Object response;
+        try {
+            response = connection.request(new BlockHashesRequest(file.fileName()));
+        } catch (IOException e) {
+            return; // descarrega tudo da rede
+        } finally {
+            if (stream != null) {
+                torrent.getConnectionManager().releaseDataStream(stream);
+            }
+        }
+        if (!(response instanceof BlockHashesMessage message)) return;
+
+        byte[] hashes = message.hashes();
+        int blocks = hashes.length / BlockIndex.HASH_SIZE;
+        int copied = 0;
+        for (int i = 0; i < blocks; i++) {
+            long offset = (long) i * Constants.BLOCK_SIZE;
+            int length = (int) Math.min(Constants.BLOCK_SIZE, file.fileSize() - offset);
+            if (length <= 0) break;
+            byte[] data = torrent.getFileManager().readLocalBlock(hashes, i, length);
+            if (data != null && storeBlock(file.fileName(), offset, data, LOCAL_SOURCE)) {
+                copied++;
+            }
+        }
+        if (copied > 0) {
+            System.out.println("Blocos copiados localmente para " + file.fileName() + ": " + copied + "/" + blocks);
+        }
+    }
 
+    // coordenação: guarda bloco recebido, atualiza estatísticas e avisa os nós interessados
+    public void saveBlock(String fileName, FileBlockAnswerMessage answer, NodeConnection connection) {
         String nodeKey = connection.getRemoteAddress() + ":" + connection.getRemotePort();
-        context.blocksPerNode.put(nodeKey, context.blocksPerNode.getOrDefault(nodeKey, 0) + 1);
+        storeBlock(fileName, answer.offset(), answer.data(), nodeKey);
+    }
+
+    private boolean storeBlock(String fileName, long offset, byte[] data, String nodeKey) {
+        int index = (int) (offset / Constants.BLOCK_SIZE);
+        List<NodeConnection> interested;
+        synchronized(this) {
+            DownloadContext context = activeDownloads.get(fileName);
+            if (context == null || context.received.get(index)) return false; // duplicado
 
-        // copia dados do bloco para posição correta
-        System.arraycopy(answer.data(), 0, context.fileData, (int) answer.offset(), answer.data().length);
-        context.receivedBlocks++;
+            context.blocksPerNode.put(nodeKey, context.blocksPerNode.getOrDefault(nodeKey, 0) + 1);
+
+            // copia dados do bloco para posição correta
+            System.arraycopy(data, 0, context.fileData, (int) offset, data.length);
+            context.blocks.remove(index);
+            context.received.set(index);
+            context.receivedBlocks++;
+            context.lastProgress = System.currentTimeMillis();
+            progress.blockReceived(fileName, nodeKey, data.length);
+
+            // notifica writer se download completo
+            if (context.isComplete()) {
+                progress.completed(fileName);
+                long elapsedTime = System.currentTimeMillis() - context.startTime;
+                if (context.writer != null) {
+                    context.writer.notifyDownloadComplete(context.blocksPerNode, elapsedTime);
+                }
+                notifyAll(); // liberta threads à espera de blocos
+            }
+            interested = context.interested.isEmpty() ? List.of() : new ArrayList<>(context.interested);
+        }
 
-        // notifica writer se download completo
-        if (context.isComplete()) {
-            long elapsedTime = System.currentTimeMillis() - context.startTime;
-            if (context.writer != null) {
-                context.writer.notifyDownloadComplete(context.blocksPerNode, elapsedTime);
+        // fora do lock: escrever na rede pode bloquear
+        for (NodeConnection peer : interested) {
+            try {
+                peer.sendMessage(new HaveMessage(fileName, index));
+            } catch (IOException e) {
+                synchronized(this) {
+                    DownloadContext context = activeDownloads.get(fileName);
+                    if (context != null) context.interested.remove(peer);
+                }
             }
         }
+        return true;
     }
 
     // recoloca bloco na fila se houve erro
     public synchronized void requeueBlock(FileBlockRequestMessage block) {
         DownloadContext context = activeDownloads.get(block.fileName());
         if (context != null) {
-            context.pendingBlocks.offer(block);
+            int index = (int) (block.offset() / Constants.BLOCK_SIZE);
+            if (!context.received.get(index)) {
+                context.blocks.requeue(index);
+                notifyAll();
+            }
+        }
+    }
+
+    // a fonte não tinha o bloco pedido: deixa de o pedir a ela e recoloca-o
+    public synchronized void blockUnavailable(String nodeKey, FileBlockRequestMessage block) {
+        DownloadContext context = activeDownloads.get(block.fileName());
+        if (context != null) {
+            context.blocks.sourceLacks(nodeKey, (int) (block.offset() / Constants.BLOCK_SIZE));
+        }
+        requeueBlock(block);
+    }
+
+    // bitmap enviado por um nó em resposta ao BitfieldRequest; um nó que ainda não era fonte
+    // e tem blocos passa a sê-lo
+    public void updateSourceBitfield(NodeConnection connection, BitfieldMessage bitfield) {
+        String nodeKey = connection.getRemoteAddress() + ":" + connection.getRemotePort();
+        boolean newSource;
+        synchronized(this) {
+            DownloadContext context = activeDownloads.get(bitfield.fileName());
+            if (context == null) return;
+
+            BitSet have = new BitSet(context.totalBlocks);
+            if (bitfield.complete()) {
+                have.set(0, context.totalBlocks);
+            } else if (bitfield.bits() != null) {
+                have = BitSet.valueOf(bitfield.bits());
+            }
+            context.blocks.setSourceBitfield(nodeKey, have);
+            newSource = !context.peers.containsKey(nodeKey) && !have.isEmpty();
+            notifyAll();
+        }
+        if (newSource) {
+            addSourceAsync(bitfield.fileName(), connection, false);
+        }
+    }
+
+    // o nó acabou de receber mais um bloco
+    public void updateSourceHave(NodeConnection connection, HaveMessage have) {
+        String nodeKey = connection.getRemoteAddress() + ":" + connection.getRemotePort();
+        boolean newSource;
+        synchronized(this) {
+            DownloadContext context = activeDownloads.get(have.fileName());
+            if (context == null) return;
+
+            context.blocks.sourceHas(nodeKey, have.blockIndex());
+            newSource = !context.peers.containsKey(nodeKey);
+            notifyAll();
+        }
+        if (newSource) {
+            addSourceAsync(have.fileName(), connection, false);
+        }
+    }
+
+    // abrir fluxos bloqueia na rede: não pode ocupar a thread de leitura da ligação nem a interface
+    public void addSourceAsync(String fileName, NodeConnection connection, boolean requestBitfield) {
+        String nodeKey = connection.getRemoteAddress() + ":" + connection.getRemotePort();
+        synchronized(this) {
+            DownloadContext context = activeDownloads.get(fileName);
+            if (context == null || context.peers.containsKey(nodeKey)) return;
         }
+        Thread thread = new Thread(() -> addSource(fileName, connection, requestBitfield),
+                "add-source-" + connection.getRemotePort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // blocos que este nó já tem de um download em curso; o nó que pergunta passa a receber HAVE
+    public synchronized BitfieldMessage getLocalBitfield(String fileName, NodeConnection requester) {
+        DownloadContext context = activeDownloads.get(fileName);
+        if (context == null) return null;
+
+        if (!context.interested.contains(requester)) {
+            context.interested.add(requester);
+        }
+        return new BitfieldMessage(fileName, context.totalBlocks, context.isComplete(),
+                context.received.toLongArray());
+    }
+
+    // lê um bloco de um download em curso, ou null se ainda não chegou
+    public synchronized byte[] readPartialBlock(String fileName, long offset, int length) {
+        DownloadContext context = activeDownloads.get(fileName);
+        if (context == null || offset < 0 || offset >= context.fileSize) return null;
+
+        int index = (int) (offset / Constants.BLOCK_SIZE);
+        int end = (int) Math.min(context.fileSize, offset + length);
+        if (context.received.get(index) && (end - 1) / Constants.BLOCK_SIZE == index) {
+            return Arrays.copyOfRange(context.fileData, (int) offset, end);
+        }
+        return null;
+    }
+
+    // downloads em curso que satisfazem a pesquisa, anunciados como fontes parciais
+    public synchronized List<FileSearchResult> searchPartialFiles(QueryMatcher matcher, int port, String workingDirectory) {
+        List<FileSearchResult> results = new ArrayList<>();
+        for (DownloadContext context : activeDownloads.values()) {
+            if (context.receivedBlocks > 0 && matcher.matches(context.fileName, context.fileSize)) {
+                results.add(new FileSearchResult(context.fileName, context.fileSize,
+                        Constants.LOCAL_ADDRESS, port, workingDirectory));
+            }
+        }
+        return results;
+    }
+
+    public synchronized boolean isActive(String fileName) {
+        return activeDownloads.containsKey(fileName);
+    }
+
+    synchronized int getPendingCount(String fileName) {
+        DownloadContext context = activeDownloads.get(fileName);
+        return context != null ? context.blocks.pendingCount() : 0;
+    }
+
+    synchronized int getBlocksFromNode(String fileName, String nodeKey) {
+        DownloadContext context = activeDownloads.get(fileName);
+        return context != null ? context.blocksPerNode.getOrDefault(nodeKey, 0) : 0;
     }
 
     public synchronized boolean isDownloadComplete(String fileName) {
@@ -119,12 +513,37 @@ public class DownloadTasksManager {
         return context != null ? context.fileData : null;
     }
 
+    // estado para métricas
+    public synchronized int getActiveDownloadsCount() {
+        return activeDownloads.size();
+    }
+
+    public synchronized Map<String, Integer> getPendingBlocks() {
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<String, DownloadContext> entry : activeDownloads.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().blocks.pendingCount());
+        }
+        return result;
+    }
+
+    public synchronized long getBufferedBytes() {
+        long total = 0;
+        for (DownloadContext context : activeDownloads.values()) {
+            total += context.fileData.length;
+        }
+        return total;
+    }
+
     public synchronized void removeDownload(String fileName) {
         activeDownloads.remove(fileName);
+        progress.removed(fileName);
+        notifyAll();
     }
 
     public synchronized void shutdown() {
         activeDownloads.clear();
+        progress.shutdown();
+        notifyAll();
     }
 
     public IscTorrent getTorrent() {
@@ -1,8 +1,7 @@
 package pt.iscte.pcd.isctorrent.download;
 
-import pt.iscte.pcd.isctorrent.gui.dialogs.DownloadResultDialog;
+import pt.iscte.pcd.isctorrent.jfr.FileCommitEvent;
 
-import javax.swing.*;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -15,6 +14,7 @@ public class FileWriterThread implements Runnable {
     private final String workingDirectory;
     private final DownloadTasksManager manager;
     private volatile boolean downloadComplete = false;
+    private boolean cancelled = false;
     private Map<String, Integer> nodeCounter;
     private long elapsedTime;
 
@@ -30,9 +30,10 @@ public class FileWriterThread implements Runnable {
         try {
             // espera até download estar completo usando wait/notify
             synchronized(this) {
-                while (!downloadComplete) {
+                while (!downloadComplete && !cancelled) {
                     wait(); // bloqueia até ser notificada
                 }
+                if (!downloadComplete) return; // download falhou: nada a escrever
             }
 
             byte[] fileData = manager.getFileData(hash);
@@ -40,16 +41,23 @@ public class FileWriterThread implements Runnable {
 
             // escreve ficheiro completo em disco
             File newFile = new File(workingDirectory, fileName);
+            FileCommitEvent event = new FileCommitEvent();
+            event.begin();
             try (FileOutputStream fos = new FileOutputStream(newFile)) {
                 fos.write(fileData);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.file = fileName;
+                    event.size = fileData.length;
+                    event.commit();
+                }
 
+                // passa a servir o ficheiro do disco antes de largar a cópia em memória
+                manager.getTorrent().addSharedFile(newFile);
                 manager.removeDownload(hash); // limpa dados após escrita
 
                 // mostra resultado
-                SwingUtilities.invokeLater(() ->
-                        DownloadResultDialog.showResult(
-                                SwingUtilities.getWindowAncestor(manager.getTorrent().getGui()),
-                                fileName, nodeCounter, elapsedTime));
+                manager.getTorrent().notifyDownloadComplete(fileName, nodeCounter, elapsedTime);
             }
         } catch (InterruptedException | IOException e) {
             System.err.println("Erro na escrita: " + e.getMessage());
@@ -63,4 +71,10 @@ public class FileWriterThread implements Runnable {
         this.downloadComplete = true;
         notify(); // acorda thread de escrita
     }
+
+    // download abandonado: a thread termina sem escrever
+    public synchronized void cancel() {
+        cancelled = true;
+        notify();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+package pt.iscte.pcd.isctorrent.download;
+
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// progresso dos downloads: cada bloco só soma contadores, e uma thread publica no máximo um evento por
+// download a cada PROGRESS_INTERVAL_MS, com débitos suavizados, ETA e fontes paradas
+class ProgressTracker {
+    private static final double SMOOTHING = 0.3; // peso da última medição na média móvel
+    private static final double MIN_RATE = 1; // abaixo disto (bytes/s) o débito conta como zero
+
+    private static class Transfer {
+        final String fileName;
+        final long fileSize;
+        final int totalBlocks;
+        final long startNanos = System.nanoTime();
+        final Map<String, Source> sources = new LinkedHashMap<>();
+        long bytes;
+        int blocks;
+        long publishedBytes; // bytes no último evento
+        double rate;
+        long lastBlockNanos = startNanos;
+        boolean stalled;
+        boolean complete;
+
+        Transfer(String fileName, long fileSize, int totalBlocks) {
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.totalBlocks = totalBlocks;
+        }
+    }
+
+    private static class Source {
+        boolean peer; // fonte remota ligada (as cópias locais e as fontes que saíram não param)
+        long bytes;
+        long publishedBytes;
+        double rate;
+        long lastBlockNanos = System.nanoTime();
+        boolean stalled;
+
+        Source(boolean peer) {
+            this.peer = peer;
+        }
+    }
+
+    private final IscTorrent torrent;
+    private final Map<String, Transfer> transfers = new LinkedHashMap<>();
+    private ScheduledExecutorService publisher; // criado com o primeiro download
+    private long lastTick;
+
+    ProgressTracker(IscTorrent torrent) {
+        this.torrent = torrent;
+    }
+
+    synchronized void started(String fileName, long fileSize, int totalBlocks) {
+        transfers.putIfAbsent(fileName, new Transfer(fileName, fileSize, totalBlocks));
+        if (publisher == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "download-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            lastTick = System.nanoTime();
+            executor.scheduleAtFixedRate(this::publish, Constants.PROGRESS_INTERVAL_MS,
+                    Constants.PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            publisher = executor;
+        }
+    }
+
+    synchronized void sourceAdded(String fileName, String node) {
+        Transfer transfer = transfers.get(fileName);
+        if (transfer != null) transfer.sources.computeIfAbsent(node, k -> new Source(true)).peer = true;
+    }
+
+    // a fonte saiu: continua no evento com o que entregou, mas já não conta como parada
+    synchronized void sourceRemoved(String fileName, String node) {
+        Transfer transfer = transfers.get(fileName);
+        Source source = transfer != null ? transfer.sources.get(node) : null;
+        if (source != null) source.peer = false;
+    }
+
+    synchronized void blockReceived(String fileName, String node, int length) {
+        Transfer transfer = transfers.get(fileName);
+        if (transfer == null) return;
+        long now = System.nanoTime();
+        transfer.bytes += length;
+        transfer.blocks++;
+        transfer.lastBlockNanos = now;
+        Source source = transfer.sources.computeIfAbsent(node, k -> new Source(false));
+        source.bytes += length;
+        source.lastBlockNanos = now;
+    }
+
+    // o último evento (completo) sai no próximo período, depois dos blocos que o antecederam
+    synchronized void completed(String fileName) {
+        Transfer transfer = transfers.get(fileName);
+        if (transfer != null) transfer.complete = true;
+    }
+
+    // download cancelado ou já escrito: deixa de ser publicado
+    synchronized void removed(String fileName) {
+        Transfer transfer = transfers.get(fileName);
+        if (transfer != null && !transfer.complete) transfers.remove(fileName);
+    }
+
+    // corre na thread de publicação; os listeners são chamados fora do lock
+    private void publish() {
+        List<DownloadProgress> events = new ArrayList<>();
+        synchronized(this) {
+            long now = System.nanoTime();
+            double seconds = Math.max(1e-3, (now - lastTick) / 1e9);
+            lastTick = now;
+            long stallNanos = Constants.PROGRESS_STALL_MS * 1_000_000;
+
+            Iterator<Transfer> iterator = transfers.values().iterator();
+            while (iterator.hasNext()) {
+                Transfer transfer = iterator.next();
+                boolean changed = transfer.bytes != transfer.publishedBytes || transfer.rate > 0 || transfer.complete;
+                transfer.rate = smooth(transfer.rate, (transfer.bytes - transfer.publishedBytes) / seconds);
+                transfer.publishedBytes = transfer.bytes;
+                boolean stalled = !transfer.complete && now - transfer.lastBlockNanos > stallNanos;
+                changed |= stalled != transfer.stalled;
+                transfer.stalled = stalled;
+
+                List<DownloadProgress.PeerProgress> peers = new ArrayList<>();
+                for (Map.Entry<String, Source> entry : transfer.sources.entrySet()) {
+                    Source source = entry.getValue();
+                    source.rate = smooth(source.rate, (source.bytes - source.publishedBytes) / seconds);
+                    source.publishedBytes = source.bytes;
+                    long idle = now - source.lastBlockNanos;
+                    boolean sourceStalled = source.peer && !transfer.complete && idle > stallNanos;
+                    changed |= sourceStalled != source.stalled;
+                    source.stalled = sourceStalled;
+                    peers.add(new DownloadProgress.PeerProgress(entry.getKey(), source.bytes, source.rate,
+                            idle / 1_000_000, sourceStalled));
+                }
+                if (!changed) continue;
+
+                long remaining = Math.max(0, transfer.fileSize - transfer.bytes);
+                long eta = transfer.complete ? 0 : transfer.rate > 0 ? (long) (remaining / transfer.rate * 1000) : -1;
+                events.add(new DownloadProgress(transfer.fileName, transfer.fileSize, transfer.bytes,
+                        transfer.blocks, transfer.totalBlocks, transfer.rate, eta,
+                        (now - transfer.startNanos) / 1_000_000, stalled, transfer.complete, peers));
+                if (transfer.complete) iterator.remove();
+            }
+        }
+        for (DownloadProgress event : events) {
+            torrent.notifyDownloadProgress(event);
+        }
+    }
+
+    // média móvel exponencial: segue mudanças de débito em poucos períodos sem saltar a cada bloco
+    private static double smooth(double previous, double sample) {
+        double rate = previous == 0 ? sample : SMOOTHING * sample + (1 - SMOOTHING) * previous;
+        return rate < MIN_RATE ? 0 : rate;
+    }
+
+    synchronized void shutdown() {
+        if (publisher != null) publisher.shutdownNow();
+    }
+}
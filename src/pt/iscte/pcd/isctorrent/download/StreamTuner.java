@@ -0,0 +1,87 @@
+package pt.iscte.pcd.isctorrent.download;
+
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.network.NodeConnection;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// ajusta o número de fluxos de dados por nó de um download conforme o débito medido:
+// acrescenta fluxos enquanto o débito cresce e retira o último quando deixa de compensar
+class StreamTuner implements Runnable {
+    private static final double MIN_GAIN = 1.10; // um fluxo extra tem de trazer pelo menos +10%
+
+    // fluxos de um download para um nó
+    static class PeerStreams {
+        final NodeConnection control;
+        final String nodeKey;
+        final List<DownloadTask> tasks = new ArrayList<>();
+        int lastBlocks = 0;
+        double rateBeforeAdd = 0;
+        boolean lastAdded = false;
+        boolean settled = false; // deixou de ajustar
+
+        PeerStreams(NodeConnection control) {
+            this.control = control;
+            this.nodeKey = control.getRemoteAddress() + ":" + control.getRemotePort();
+        }
+
+        synchronized int activeStreams() {
+            tasks.removeIf(DownloadTask::isFinished);
+            return tasks.size();
+        }
+    }
+
+    private final FileSearchResult file;
+    private final DownloadTasksManager manager;
+
+    StreamTuner(FileSearchResult file, DownloadTasksManager manager) {
+        this.file = file;
+        this.manager = manager;
+    }
+
+    @Override
+    public void run() {
+        String fileName = file.fileName();
+        try {
+            while (manager.isActive(fileName) && !manager.isDownloadComplete(fileName)) {
+                Thread.sleep(Constants.STREAM_TUNING_INTERVAL_MS);
+                for (PeerStreams peer : manager.getPeers(fileName)) { // as fontes podem mudar
+                    tune(fileName, peer);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void tune(String fileName, PeerStreams peer) {
+        int blocks = manager.getBlocksFromNode(fileName, peer.nodeKey);
+        double rate = (blocks - peer.lastBlocks) * 1000.0 / Constants.STREAM_TUNING_INTERVAL_MS;
+        peer.lastBlocks = blocks;
+
+        int streams = peer.activeStreams();
+        if (peer.settled || streams == 0) return;
+
+        if (peer.lastAdded && rate < peer.rateBeforeAdd * MIN_GAIN) {
+            // o último fluxo não aumentou o débito: retira-o e fica assim
+            if (streams > 1) {
+                synchronized (peer) {
+                    peer.tasks.get(peer.tasks.size() - 1).stop();
+                }
+            }
+            peer.lastAdded = false;
+            peer.settled = true;
+            return;
+        }
+
+        boolean enoughWork = manager.getPendingCount(fileName) > streams;
+        if (rate > 0 && streams < Constants.MAX_DATA_STREAMS_PER_PEER && enoughWork) {
+            peer.rateBeforeAdd = rate;
+            peer.lastAdded = manager.startStream(file, peer);
+        } else {
+            peer.lastAdded = false;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package pt.iscte.pcd.isctorrent.gui;
+
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// linha da lista de resultados: um ficheiro e todos os nós que o têm
+class FileSearchResultDisplay {
+    private final List<FileSearchResult> results; // todos os nós que têm o ficheiro
+    private final String fileName;
+    private final long fileSize;
+    private String label; // texto mostrado, refeito só quando muda
+
+    FileSearchResultDisplay(FileSearchResult result) {
+        this.results = new ArrayList<>();
+        this.results.add(result);
+        this.fileName = result.fileName();
+        this.fileSize = result.fileSize();
+    }
+
+    // identidade do ficheiro: nomes iguais com tamanhos diferentes são ficheiros diferentes
+    static String keyOf(FileSearchResult result) {
+        return result.fileName() + "\u0000" + result.fileSize();
+    }
+
+    void addResult(FileSearchResult result) {
+        results.add(result); // adiciona mais um nó
+        label = null;
+    }
+
+    List<FileSearchResult> getAllResults() {
+        return new ArrayList<>(results);
+    }
+
+    int getNodeCount() {
+        return results.size(); // número de nós que têm o ficheiro
+    }
+
+    @Override
+    public String toString() {
+        // formato: nome (tamanho) (X nodes)
+        if (label == null) {
+            label = String.format("%s (%d bytes) (%d nodes)", fileName, fileSize, getNodeCount());
+        }
+        return label;
+    }
+}
@@ -1,22 +1,27 @@
 package pt.iscte.pcd.isctorrent.gui;
 
 import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.core.TorrentListener;
+import pt.iscte.pcd.isctorrent.download.DownloadProgress;
 import pt.iscte.pcd.isctorrent.gui.dialogs.ConnectionDialog;
+import pt.iscte.pcd.isctorrent.gui.dialogs.DownloadResultDialog;
 import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
 
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 // interface gráfica
-public class GUI extends JFrame {
+public class GUI extends JFrame implements TorrentListener {
     private final IscTorrent torrent;
     private final JTextField searchField; // campo de pesquisa
     private final JList<FileSearchResultDisplay> resultsList; // lista de resultados
-    private final DefaultListModel<FileSearchResultDisplay> resultsModel;
+    private final SearchResultsModel resultsModel;
     private final JList<String> connectionsList; // lista de conexões ativas
     private final DefaultListModel<String> connectionsModel;
+    private final DefaultListModel<DownloadProgress> downloadsModel; // downloads em curso, só na EDT
 
     public GUI(IscTorrent torrent, int port) {
         this.torrent = torrent;
@@ -27,14 +32,19 @@ public class GUI extends JFrame {
         // painel de pesquisa no topo
         JPanel searchPanel = new JPanel(new BorderLayout(5, 0));
         searchField = new JTextField();
+        searchField.setToolTipText("<html>Palavras soltas procuram no nome do ficheiro<br>"
+                + "Filtros: prefix:&lt;p&gt; glob:*.mp3 re:&lt;regex&gt; ext:mp3,ogg min:10K max:5M limit:N</html>");
         JButton searchButton = new JButton("Procurar");
         searchPanel.add(searchField, BorderLayout.CENTER);
         searchPanel.add(searchButton, BorderLayout.EAST);
 
         // lista de resultados à esquerda
-        resultsModel = new DefaultListModel<>();
+        resultsModel = new SearchResultsModel();
         resultsList = new JList<>(resultsModel);
         resultsList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION); // seleção múltipla
+        // altura e largura fixas: o JList só mede e desenha as linhas visíveis, mesmo com milhares de resultados
+        resultsList.setFixedCellHeight(resultsList.getFontMetrics(resultsList.getFont()).getHeight() + 2);
+        resultsList.setFixedCellWidth(450);
         JScrollPane scrollPane = new JScrollPane(resultsList);
 
         // lista de conexões ativas
@@ -44,6 +54,13 @@ public class GUI extends JFrame {
         JScrollPane connectionsScroll = new JScrollPane(connectionsList);
         connectionsScroll.setPreferredSize(new Dimension(200, 120));
 
+        // downloads em curso: percentagem, débito e ETA
+        downloadsModel = new DefaultListModel<>();
+        JList<DownloadProgress> downloadsList = new JList<>(downloadsModel);
+        downloadsList.setBorder(BorderFactory.createTitledBorder("Transferências"));
+        JScrollPane downloadsScroll = new JScrollPane(downloadsList);
+        downloadsScroll.setPreferredSize(new Dimension(200, 120));
+
         // botões à direita
         JPanel buttonPanel = new JPanel(new GridLayout(2, 1, 0, 5));
         JButton downloadButton = new JButton("Transferir");
@@ -55,6 +72,7 @@ public class GUI extends JFrame {
         JPanel rightPanel = new JPanel(new BorderLayout(0, 5));
         rightPanel.add(buttonPanel, BorderLayout.NORTH);
         rightPanel.add(connectionsScroll, BorderLayout.CENTER);
+        rightPanel.add(downloadsScroll, BorderLayout.SOUTH);
 
         // layout principal
         JPanel mainPanel = new JPanel(new BorderLayout(5, 5));
@@ -73,6 +91,58 @@ public class GUI extends JFrame {
 
         setLocationRelativeTo(null);
         setVisible(true);
+
+        torrent.addListener(this); // recebe eventos do nó
+    }
+
+    @Override
+    public void onConnectionsChanged() {
+        updateConnectionsList();
+    }
+
+    @Override
+    public void onSearchStarted(long searchId) {
+        resultsModel.startSearch(searchId);
+    }
+
+    // resultados sem pesquisa identificada não pertencem à pesquisa em curso
+    @Override
+    public void onSearchResults(List<FileSearchResult> results) {
+    }
+
+    @Override
+    public void onSearchResults(long searchId, List<FileSearchResult> results) {
+        resultsModel.addAll(searchId, results); // páginas de pesquisas anteriores são descartadas
+    }
+
+    // os eventos já chegam agregados (no máximo alguns por segundo): basta atualizar a linha na EDT
+    @Override
+    public void onDownloadProgress(DownloadProgress progress) {
+        SwingUtilities.invokeLater(() -> {
+            for (int i = 0; i < downloadsModel.size(); i++) {
+                if (downloadsModel.get(i).fileName().equals(progress.fileName())) {
+                    if (progress.complete()) {
+                        downloadsModel.remove(i);
+                    } else {
+                        downloadsModel.set(i, progress);
+                    }
+                    return;
+                }
+            }
+            if (!progress.complete()) downloadsModel.addElement(progress);
+        });
+    }
+
+    @Override
+    public void onDownloadComplete(String fileName, Map<String, Integer> blocksPerNode, long elapsedTime) {
+        SwingUtilities.invokeLater(() ->
+                DownloadResultDialog.showResult(this, fileName, blocksPerNode, elapsedTime));
+    }
+
+    @Override
+    public void onError(String title, String message) {
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                message, title, JOptionPane.ERROR_MESSAGE));
     }
 
     // inicia pesquisa por palavra-chave
@@ -80,7 +150,10 @@ public class GUI extends JFrame {
         String keyword = searchField.getText().trim();
         if (!keyword.isEmpty()) {
             resultsModel.clear(); // limpa resultados anteriores
-            torrent.searchFiles(keyword);
+            // a pesquisa espera pelas respostas: fora da EDT, para as páginas irem aparecendo
+            Thread searcher = new Thread(() -> torrent.searchFiles(keyword), "search");
+            searcher.setDaemon(true);
+            searcher.start();
         }
     }
 
@@ -88,35 +161,17 @@ public class GUI extends JFrame {
     private void download() {
         List<FileSearchResultDisplay> selectedItems = resultsList.getSelectedValuesList();
         if (!selectedItems.isEmpty()) {
+            List<List<FileSearchResult>> files = new ArrayList<>();
             for (FileSearchResultDisplay selected : selectedItems) {
-                List<FileSearchResult> allResults = selected.getAllResults();
-                torrent.startDownloadFromMultipleNodes(allResults); // download com múltiplos nós
+                files.add(selected.getAllResults()); // download com múltiplos nós
             }
+            // ligar a donos novos e pedir hashes bloqueia na rede: fora da EDT, como a pesquisa
+            Thread starter = new Thread(() -> torrent.startDownloads(files), "download-start"); // pequenos em lote
+            starter.setDaemon(true);
+            starter.start();
         }
     }
 
-    // adiciona resultados à lista - thread-safe
-    public void addSearchResults(List<FileSearchResult> results) {
-        SwingUtilities.invokeLater(() -> {
-            for (FileSearchResult result : results) {
-                boolean found = false;
-                // agrupa ficheiros com mesmo nome
-                for (int i = 0; i < resultsModel.size(); i++) {
-                    FileSearchResultDisplay display = resultsModel.getElementAt(i);
-                    if (display.fileName.equals(result.fileName())) {
-                        display.addResult(result); // adiciona nó à lista do ficheiro
-                        resultsModel.setElementAt(display, i); // atualiza display
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    resultsModel.addElement(new FileSearchResultDisplay(result));
-                }
-            }
-        });
-    }
-
     // atualiza lista de conexões ativas
     public void updateConnectionsList() {
         SwingUtilities.invokeLater(() -> {
@@ -130,40 +185,7 @@ public class GUI extends JFrame {
     private void showConnectionDialog() {
         ConnectionDialog.ConnectionResult result = ConnectionDialog.showDialog(this);
         if (result != null) {
-            torrent.connectToNode(result.address(), result.port());
-        }
-    }
-
-    // classe para mostrar ficheiros com contagem de nós
-    private static class FileSearchResultDisplay {
-        private final List<FileSearchResult> results; // todos os nós que têm o ficheiro
-        private final String fileName;
-        private final long fileSize;
-
-        public FileSearchResultDisplay(FileSearchResult result) {
-            this.results = new ArrayList<>();
-            this.results.add(result);
-            this.fileName = result.fileName();
-            this.fileSize = result.fileSize();
-        }
-
-        public void addResult(FileSearchResult result) {
-            results.add(result); // adiciona mais um nó
-        }
-
-        public List<FileSearchResult> getAllResults() {
-            return new ArrayList<>(results);
-        }
-
-        public int getNodeCount() {
-            return results.size(); // número de nós que têm o ficheiro
-        }
-
-        @Override
-        public String toString() {
-            // formato: nome (tamanho) (X nodes)
-            return String.format("%s (%d bytes) (%d nodes)",
-                    fileName, fileSize, getNodeCount());
+            torrent.connectToNodeAsync(result.address(), result.port()); // não bloqueia a interface
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package pt.iscte.pcd.isctorrent.gui;
+
+import pt.iscte.pcd.isctorrent.core.TorrentListener;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+
+import javax.swing.*;
+import java.io.Serial;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// resultados agrupados por ficheiro, com índice de hash do ficheiro para a linha: os resultados chegam de
+// qualquer thread, ficam em fila e são aplicados de uma vez na EDT, com um evento de inserção e um de alteração
+class SearchResultsModel extends AbstractListModel<FileSearchResultDisplay> {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final List<FileSearchResultDisplay> rows = new ArrayList<>(); // só acedido na EDT
+    private final Map<String, Integer> rowByFile = new HashMap<>(); // ficheiro -> linha
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile long currentSearch = TorrentListener.NO_SEARCH; // só os resultados desta pesquisa são mostrados
+
+    // resultado em fila, com a pesquisa a que pertence
+    private record Pending(long searchId, FileSearchResult result) {
+    }
+
+    // qualquer thread: a partir daqui páginas de pesquisas anteriores são ignoradas
+    void startSearch(long searchId) {
+        currentSearch = searchId;
+    }
+
+    // thread-safe: páginas que chegam enquanto a EDT está ocupada juntam-se na mesma atualização
+    void addAll(long searchId, List<FileSearchResult> results) {
+        if (searchId == TorrentListener.NO_SEARCH || searchId != currentSearch) return; // página tardia de uma pesquisa anterior
+        for (FileSearchResult result : results) {
+            pending.add(new Pending(searchId, result));
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false); // o que chegar a partir daqui agenda nova atualização
+        int firstNew = rows.size();
+        int firstChanged = Integer.MAX_VALUE;
+        int lastChanged = -1;
+
+        Pending next;
+        while ((next = pending.poll()) != null) {
+            if (next.searchId() != currentSearch) continue; // entretanto começou outra pesquisa
+            FileSearchResult result = next.result();
+            String key = FileSearchResultDisplay.keyOf(result);
+            Integer row = rowByFile.get(key);
+            if (row == null) {
+                rowByFile.put(key, rows.size());
+                rows.add(new FileSearchResultDisplay(result));
+            } else {
+                rows.get(row).addResult(result); // adiciona nó à lista do ficheiro
+                if (row < firstNew) {
+                    firstChanged = Math.min(firstChanged, row);
+                    lastChanged = Math.max(lastChanged, row);
+                }
+            }
+        }
+
+        if (lastChanged >= 0) {
+            fireContentsChanged(this, firstChanged, lastChanged);
+        }
+        if (rows.size() > firstNew) {
+            fireIntervalAdded(this, firstNew, rows.size() - 1);
+        }
+    }
+
+    // só na EDT; resultados ainda em fila de uma pesquisa anterior são descartados, e os que chegarem
+    // até a pesquisa nova começar também
+    void clear() {
+        currentSearch = TorrentListener.NO_SEARCH;
+        pending.clear();
+        int size = rows.size();
+        rows.clear();
+        rowByFile.clear();
+        if (size > 0) {
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return rows.size();
+    }
+
+    @Override
+    public FileSearchResultDisplay getElementAt(int index) {
+        return rows.get(index);
+    }
+}
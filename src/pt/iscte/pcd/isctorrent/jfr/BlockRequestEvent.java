@@ -0,0 +1,27 @@
+package pt.iscte.pcd.isctorrent.jfr;
+
+import jdk.jfr.*;
+
+// pedido de bloco feito pelo downloader, do envio até à resposta
+@Name("pt.iscte.pcd.isctorrent.BlockRequest")
+@Label("Block Request")
+@Category({"IscTorrent", "Download"})
+@StackTrace(false)
+public class BlockRequestEvent extends Event {
+    @Label("Peer")
+    public String peer;
+
+    @Label("File")
+    public String file;
+
+    @Label("Offset")
+    @DataAmount
+    public long offset;
+
+    @Label("Size")
+    @DataAmount
+    public int size;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,33 @@
+package pt.iscte.pcd.isctorrent.jfr;
+
+import jdk.jfr.*;
+
+// bloco servido a outro nó: leitura em disco e escrita no canal
+@Name("pt.iscte.pcd.isctorrent.BlockServe")
+@Label("Block Serve")
+@Category({"IscTorrent", "Upload"})
+@StackTrace(false)
+public class BlockServeEvent extends Event {
+    @Label("Peer")
+    public String peer;
+
+    @Label("File")
+    public String file;
+
+    @Label("Offset")
+    @DataAmount
+    public long offset;
+
+    @Label("Size")
+    @DataAmount
+    public int size;
+
+    @Label("Disk Read Time")
+    @Timespan
+    public long readDuration;
+
+    @Label("Write Time")
+    @Description("Serialization and socket write of the answer")
+    @Timespan
+    public long writeDuration;
+}
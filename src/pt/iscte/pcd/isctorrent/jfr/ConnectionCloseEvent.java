@@ -0,0 +1,21 @@
+package pt.iscte.pcd.isctorrent.jfr;
+
+import jdk.jfr.*;
+
+// ligação a outro nó terminada
+@Name("pt.iscte.pcd.isctorrent.ConnectionClose")
+@Label("Connection Close")
+@Category({"IscTorrent", "Network"})
+@StackTrace(false)
+public class ConnectionCloseEvent extends Event {
+    @Label("Peer")
+    public String peer;
+
+    @Label("Bytes In")
+    @DataAmount
+    public long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    public long bytesOut;
+}
@@ -0,0 +1,16 @@
+package pt.iscte.pcd.isctorrent.jfr;
+
+import jdk.jfr.*;
+
+// ligação a outro nó estabelecida
+@Name("pt.iscte.pcd.isctorrent.ConnectionOpen")
+@Label("Connection Open")
+@Category({"IscTorrent", "Network"})
+@StackTrace(false)
+public class ConnectionOpenEvent extends Event {
+    @Label("Peer")
+    public String peer;
+
+    @Label("Outbound")
+    public boolean outbound;
+}
@@ -0,0 +1,17 @@
+package pt.iscte.pcd.isctorrent.jfr;
+
+import jdk.jfr.*;
+
+// escrita em disco de um ficheiro descarregado
+@Name("pt.iscte.pcd.isctorrent.FileCommit")
+@Label("File Commit")
+@Category({"IscTorrent", "Download"})
+@StackTrace(false)
+public class FileCommitEvent extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Size")
+    @DataAmount
+    public long size;
+}
@@ -0,0 +1,25 @@
+package pt.iscte.pcd.isctorrent.jfr;
+
+import jdk.jfr.*;
+
+// pesquisa enviada aos nós cujo resumo de partilhas a pode satisfazer, até todas as respostas ou timeout
+@Name("pt.iscte.pcd.isctorrent.SearchBroadcast")
+@Label("Search Broadcast")
+@Category({"IscTorrent", "Search"})
+@StackTrace(false)
+public class SearchBroadcastEvent extends Event {
+    @Label("Keyword")
+    public String keyword;
+
+    @Label("Fan Out")
+    public int fanOut;
+
+    @Label("Peers Skipped")
+    public int skipped;
+
+    @Label("Results")
+    public int results;
+
+    @Label("Timed Out")
+    public boolean timedOut;
+}
@@ -0,0 +1,19 @@
+package pt.iscte.pcd.isctorrent.jfr;
+
+import jdk.jfr.*;
+
+// resposta a uma pesquisa de outro nó: pesquisa local e envio dos resultados
+@Name("pt.iscte.pcd.isctorrent.SearchReply")
+@Label("Search Reply")
+@Category({"IscTorrent", "Search"})
+@StackTrace(false)
+public class SearchReplyEvent extends Event {
+    @Label("Peer")
+    public String peer;
+
+    @Label("Keyword")
+    public String keyword;
+
+    @Label("Results")
+    public int results;
+}
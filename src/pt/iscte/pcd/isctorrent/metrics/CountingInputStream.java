@@ -0,0 +1,37 @@
+package pt.iscte.pcd.isctorrent.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+// conta os bytes lidos do socket
+public class CountingInputStream extends FilterInputStream {
+    private final LongAdder connectionBytes;
+    private final LongAdder totalBytes;
+
+    public CountingInputStream(InputStream in, LongAdder connectionBytes, LongAdder totalBytes) {
+        super(in);
+        this.connectionBytes = connectionBytes;
+        this.totalBytes = totalBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) count(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) count(read);
+        return read;
+    }
+
+    private void count(int bytes) {
+        connectionBytes.add(bytes);
+        totalBytes.add(bytes);
+    }
+}
@@ -0,0 +1,35 @@
+package pt.iscte.pcd.isctorrent.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+// conta os bytes escritos no socket
+public class CountingOutputStream extends FilterOutputStream {
+    private final LongAdder connectionBytes;
+    private final LongAdder totalBytes;
+
+    public CountingOutputStream(OutputStream out, LongAdder connectionBytes, LongAdder totalBytes) {
+        super(out);
+        this.connectionBytes = connectionBytes;
+        this.totalBytes = totalBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len); // evita a escrita byte a byte do FilterOutputStream
+        count(len);
+    }
+
+    private void count(int bytes) {
+        connectionBytes.add(bytes);
+        totalBytes.add(bytes);
+    }
+}
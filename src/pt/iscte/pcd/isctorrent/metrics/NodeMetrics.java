@@ -0,0 +1,305 @@
+package pt.iscte.pcd.isctorrent.metrics;
+
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.network.NodeConnection;
+
+import javax.management.*;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// métricas do nó: registo barato (LongAdder e histogramas sem locks), leitura via JMX
+public class NodeMetrics implements NodeMetricsMXBean {
+    private static final String DOMAIN = "pt.iscte.pcd.isctorrent";
+
+    private final IscTorrent torrent;
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LatencyHistogram blockLatency = new LatencyHistogram();
+    private final AtomicInteger activeUploads = new AtomicInteger();
+    private final LongAdder blocksServed = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+    private final LongAdder searchesAnswered = new LongAdder();
+    private final LongAdder searchFanOut = new LongAdder();
+    private final LongAdder searchPeersSkipped = new LongAdder(); // excluídos pelo resumo de partilhas
+    private final LatencyHistogram searchLatency = new LatencyHistogram();
+    private ObjectName objectName;
+
+    public NodeMetrics(IscTorrent torrent) {
+        this.torrent = torrent;
+    }
+
+    // regista o MBean; uma falha não impede o nó de arrancar
+    public void register(int port) {
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=Node,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            System.err.println("Falha ao registar métricas JMX: " + e.getMessage());
+            objectName = null;
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            System.err.println("Falha ao remover métricas JMX: " + e.getMessage());
+        }
+        objectName = null;
+    }
+
+    // canais do socket com contagem por ligação e total do nó
+    public InputStream countInput(InputStream in, LongAdder connectionBytes) {
+        return new CountingInputStream(in, connectionBytes, bytesIn);
+    }
+
+    public OutputStream countOutput(OutputStream out, LongAdder connectionBytes) {
+        return new CountingOutputStream(out, connectionBytes, bytesOut);
+    }
+
+    public void recordBlockLatency(long latencyNanos) {
+        blockLatency.record(latencyNanos);
+    }
+
+    public void uploadStarted() {
+        activeUploads.incrementAndGet();
+    }
+
+    public void uploadFinished(int bytes) {
+        activeUploads.decrementAndGet();
+        if (bytes > 0) {
+            blocksServed.increment();
+            bytesServed.add(bytes);
+        }
+    }
+
+    public void recordSearch(int fanOut, long latencyNanos) {
+        searchFanOut.add(fanOut);
+        searchLatency.record(latencyNanos);
+    }
+
+    public void searchPeersSkipped(int peers) {
+        searchPeersSkipped.add(peers);
+    }
+
+    public void searchAnswered() {
+        searchesAnswered.increment();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return torrent.getConnectionManager().getActiveConnectionsCount();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public Map<String, Long> getPeerBytesIn() {
+        return perPeer(0);
+    }
+
+    @Override
+    public Map<String, Long> getPeerBytesOut() {
+        return perPeer(1);
+    }
+
+    // tráfego por nó somando a ligação de controlo e os fluxos de dados, indexado pelo endereço da ligação de controlo
+    private Map<String, Long> perPeer(int direction) {
+        Map<String, long[]> traffic = torrent.getConnectionManager().getTrafficByNode();
+        Map<String, Long> result = new HashMap<>();
+        for (NodeConnection conn : torrent.getConnectionManager().getConnections()) {
+            String peer = conn.getRemoteAddress() + ":" + conn.getRemotePort();
+            long[] bytes = conn.getNodeId() != null ? traffic.remove(conn.getNodeId()) : null;
+            // nós sem identidade (versões antigas) só têm a ligação de controlo
+            result.merge(peer, bytes != null ? bytes[direction]
+                    : direction == 0 ? conn.getBytesIn() : conn.getBytesOut(), Long::sum);
+        }
+        // fluxos de dados de nós cuja ligação de controlo já fechou
+        for (Map.Entry<String, long[]> entry : traffic.entrySet()) {
+            result.merge(entry.getKey(), entry.getValue()[direction], Long::sum);
+        }
+        return result;
+    }
+
+    @Override
+    public int getActiveDownloads() {
+        return torrent.getDownloadManager().getActiveDownloadsCount();
+    }
+
+    @Override
+    public Map<String, Integer> getPendingBlocks() {
+        return torrent.getDownloadManager().getPendingBlocks();
+    }
+
+    @Override
+    public long getDownloadBufferBytes() {
+        return torrent.getDownloadManager().getBufferedBytes();
+    }
+
+    @Override
+    public long getBlockRequests() {
+        return blockLatency.getCount();
+    }
+
+    @Override
+    public double getBlockLatencyMeanMs() {
+        return blockLatency.getMean() / 1e6;
+    }
+
+    @Override
+    public double getBlockLatencyP50Ms() {
+        return blockLatency.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getBlockLatencyP99Ms() {
+        return blockLatency.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getBlockLatencyMaxMs() {
+        return blockLatency.getMax() / 1e6;
+    }
+
+    @Override
+    public int getActiveUploads() {
+        return activeUploads.get();
+    }
+
+    @Override
+    public int getUnchokedPeers() {
+        return torrent.getUploadSlots().getUnchokedPeers();
+    }
+
+    @Override
+    public int getChokedPeers() {
+        return torrent.getUploadSlots().getChokedPeers();
+    }
+
+    @Override
+    public long getBlocksServed() {
+        return blocksServed.sum();
+    }
+
+    @Override
+    public long getBytesServed() {
+        return bytesServed.sum();
+    }
+
+    @Override
+    public long getSearchesSent() {
+        return searchLatency.getCount();
+    }
+
+    @Override
+    public long getSearchesAnswered() {
+        return searchesAnswered.sum();
+    }
+
+    @Override
+    public double getSearchFanOutMean() {
+        long searches = searchLatency.getCount();
+        return searches == 0 ? 0 : (double) searchFanOut.sum() / searches;
+    }
+
+    @Override
+    public long getSearchPeersSkipped() {
+        return searchPeersSkipped.sum();
+    }
+
+    @Override
+    public double getSearchLatencyP50Ms() {
+        return searchLatency.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getSearchLatencyP99Ms() {
+        return searchLatency.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return torrent.getFileManager().getBlockCache().getHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return torrent.getFileManager().getBlockCache().getMisses();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = getCacheHits();
+        long total = hits + getCacheMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getCacheBytesSaved() {
+        return torrent.getFileManager().getBlockCache().getHitBytes();
+    }
+
+    @Override
+    public long getCacheSizeBytes() {
+        return torrent.getFileManager().getBlockCache().getSizeBytes();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return torrent.getFileManager().getBlockCache().getEvictions();
+    }
+
+    @Override
+    public long getReadAheadBlocks() {
+        return torrent.getFileManager().getReadAheadBlocks();
+    }
+
+    @Override
+    public int getOpenFileHandles() {
+        return torrent.getFileManager().getOpenFileHandles();
+    }
+
+    @Override
+    public long getProcessOpenFileDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean unix) {
+            return unix.getOpenFileDescriptorCount();
+        }
+        return -1; // não disponível nesta plataforma
+    }
+
+    @Override
+    public long getDirectBufferBytes() {
+        return bufferPoolUsage("direct");
+    }
+
+    @Override
+    public long getMappedBufferBytes() {
+        return bufferPoolUsage("mapped");
+    }
+
+    private static long bufferPoolUsage(String name) {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals(name)) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,83 @@
+package pt.iscte.pcd.isctorrent.metrics;
+
+import java.util.Map;
+
+// atributos JMX de um nó (pt.iscte.pcd.isctorrent:type=Node,port=<porta>)
+public interface NodeMetricsMXBean {
+
+    // ligações e tráfego
+    int getActiveConnections();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    Map<String, Long> getPeerBytesIn();
+
+    Map<String, Long> getPeerBytesOut();
+
+    // downloads
+    int getActiveDownloads();
+
+    Map<String, Integer> getPendingBlocks();
+
+    long getDownloadBufferBytes();
+
+    long getBlockRequests();
+
+    double getBlockLatencyMeanMs();
+
+    double getBlockLatencyP50Ms();
+
+    double getBlockLatencyP99Ms();
+
+    double getBlockLatencyMaxMs();
+
+    // uploads
+    int getActiveUploads();
+
+    long getBlocksServed();
+
+    long getBytesServed();
+
+    int getUnchokedPeers();
+
+    int getChokedPeers();
+
+    // cache de blocos servidos
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRate();
+
+    long getCacheBytesSaved();
+
+    long getCacheSizeBytes();
+
+    long getCacheEvictions();
+
+    long getReadAheadBlocks();
+
+    // pesquisas
+    long getSearchesSent();
+
+    long getSearchesAnswered();
+
+    double getSearchFanOutMean();
+
+    long getSearchPeersSkipped();
+
+    double getSearchLatencyP50Ms();
+
+    double getSearchLatencyP99Ms();
+
+    // recursos
+    int getOpenFileHandles();
+
+    long getProcessOpenFileDescriptors();
+
+    long getDirectBufferBytes();
+
+    long getMappedBufferBytes();
+}
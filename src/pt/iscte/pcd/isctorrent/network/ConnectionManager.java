@@ -1,26 +1,46 @@
 package pt.iscte.pcd.isctorrent.network;
 
 import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.jfr.ConnectionOpenEvent;
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
 import pt.iscte.pcd.isctorrent.protocol.NewConnectionRequest;
-import pt.iscte.pcd.isctorrent.protocol.WordSearchMessage;
+import pt.iscte.pcd.isctorrent.protocol.NewDataStreamRequest;
+import pt.iscte.pcd.isctorrent.protocol.SearchQuery;
 
-import javax.swing.*;
+import javax.net.SocketFactory;
 import java.io.IOException;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-// gere ligações entre nós
+// gere ligações entre nós: uma ligação de controlo por nó, indexada pela identidade trocada no handshake
 public class ConnectionManager {
     private final IscTorrent torrent;
     private final int port;
-    private final List<NodeConnection> connections; // lista de conexões ativas
+    private final Map<String, NodeConnection> connections; // tabela de encaminhamento: nodeId -> ligação ativa
+    private final Map<String, String> nodeIds; // "endereço:porta" (real, anunciado ou marcado) -> nodeId
+    private final Map<String, Object> connecting = new ConcurrentHashMap<>(); // ligações a donos de resultados em curso
+    private final Set<NodeConnection> pending; // aceites, à espera do pedido de ligação
+    private final List<NodeConnection> dataStreams; // fluxos de dados (entrada e saída), só para blocos
+    private final Map<String, List<NodeConnection>> idleDataStreams; // fluxos de saída livres por nodeId
     private final ServerSocket serverSocket;
+    private final SocketFactory socketFactory; // cria as ligações de saída
     private volatile boolean running = true;
 
     public ConnectionManager(int port, IscTorrent torrent) {
+        this(port, torrent, SocketFactory.getDefault());
+    }
+
+    public ConnectionManager(int port, IscTorrent torrent, SocketFactory socketFactory) {
         this.port = port;
         this.torrent = torrent;
-        this.connections = new ArrayList<>(); // sincronizada com synchronized
+        this.socketFactory = socketFactory;
+        this.connections = new ConcurrentHashMap<>();
+        this.nodeIds = new ConcurrentHashMap<>();
+        this.pending = ConcurrentHashMap.newKeySet();
+        this.dataStreams = new ArrayList<>(); // protegida pelo lock de idleDataStreams
+        this.idleDataStreams = new HashMap<>();
 
         try {
             this.serverSocket = new ServerSocket(port);
@@ -33,24 +53,72 @@ public class ConnectionManager {
     // liga ativamente a outro nó
     public void connectToNode(String address, int port) {
         try {
-            Socket socket = new Socket(address, port);
-            NodeConnection connection = new NodeConnection(socket, torrent);
+            openConnection(address, port);
+        } catch (IOException e) {
+            torrent.notifyError("Erro de Ligação", "Falha ao ligar a " + address + ":" + port);
+        }
+    }
 
-            // envia pedido de ligação
+    // liga a outro nó com timeout, sem notificar a interface em caso de falha;
+    // se o nó já estava ligado por outro endereço ou pela ligação dele, devolve a ligação que fica
+    public NodeConnection openConnection(String address, int port) throws IOException {
+        NodeConnection connection = handshake(openSocket(address, port));
+        try {
+            // envia pedido de ligação e espera pela identidade do outro nó
             NewConnectionRequest request = new NewConnectionRequest(
-                    InetAddress.getLocalHost().getHostAddress(), this.port);
+                    InetAddress.getLocalHost().getHostAddress(), this.port, torrent.getNodeId());
             connection.sendMessage(request);
-
-            synchronized(connections) { // protege lista partilhada
-                connections.add(connection);
+            connection.readAnswer();
+            if (connection.getNodeId().equals(torrent.getNodeId())) {
+                throw new IOException("Ligação ao próprio nó");
+            }
+            nodeIds.put(address + ":" + port, connection.getNodeId());
+            if (!identified(connection, null)) {
+                connection.close();
+                NodeConnection existing = connections.get(connection.getNodeId());
+                if (existing == null) throw new IOException("Ligação duplicada fechada");
+                return existing;
             }
+
             new Thread(connection).start(); // thread para gerir esta conexão
-            torrent.getGui().updateConnectionsList();
+            connection.sendMessage(torrent.getFileManager().getShareSummary().toMessage());
+            recordOpen(connection, true);
+            torrent.notifyConnectionsChanged();
+            torrent.getDownloadManager().peerConnected(connection); // pode ter ficheiros em download
+            return connection;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
 
+    // socket ligado com timeout, para um nó inacessível não prender quem liga
+    private Socket openSocket(String address, int port) throws IOException {
+        Socket socket;
+        try {
+            socket = socketFactory.createSocket();
+        } catch (SocketException e) {
+            return socketFactory.createSocket(address, port); // fábrica sem sockets por ligar (ex: simulação)
+        }
+        try {
+            socket.connect(new InetSocketAddress(address, port), Constants.CONNECT_TIMEOUT_MS);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // os streams de objetos trocam um cabeçalho ao abrir: um nó que aceita mas não responde não bloqueia
+    private NodeConnection handshake(Socket socket) throws IOException {
+        try {
+            socket.setSoTimeout(Constants.CONNECT_TIMEOUT_MS);
+            NodeConnection connection = new NodeConnection(socket, torrent);
+            socket.setSoTimeout(0);
+            return connection;
         } catch (IOException e) {
-            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null,
-                    "Falha ao ligar a " + address + ":" + port,
-                    "Erro de Ligação", JOptionPane.ERROR_MESSAGE));
+            socket.close();
+            throw e;
         }
     }
 
@@ -59,12 +127,11 @@ public class ConnectionManager {
         while (running && !serverSocket.isClosed()) {
             try {
                 Socket socket = serverSocket.accept(); // bloqueia até nova ligação
-                NodeConnection connection = new NodeConnection(socket, torrent);
+                NodeConnection connection = handshake(socket);
 
-                synchronized(connections) { // protege secção crítica
-                    connections.add(connection);
-                }
+                pending.add(connection); // entra na tabela quando se identificar
                 new Thread(connection).start(); // nova thread por conexão
+                recordOpen(connection, false);
 
             } catch (IOException e) {
                 if (running && !serverSocket.isClosed()) {
@@ -74,69 +141,263 @@ public class ConnectionManager {
         }
     }
 
-    // envia pesquisa para todos os nós ligados
-    public void broadcastSearch(WordSearchMessage search, SearchResultsCollector collector) {
-        List<NodeConnection> connectionsCopy;
-        synchronized(connections) { // copia para evitar modificação concorrente
-            connectionsCopy = new ArrayList<>(connections);
+    // a ligação identificou-se: entra na tabela, a não ser que já exista outra ligação ao mesmo nó.
+    // com ligações cruzadas (os dois nós ligaram ao mesmo tempo) fica, dos dois lados, a iniciada pelo nó
+    // de menor identidade; devolve false se esta ligação é a que sai (quem chama fecha-a)
+    boolean identified(NodeConnection connection, String advertisedAddress) {
+        pending.remove(connection);
+        String nodeId = connection.getNodeId();
+        if (nodeId.equals(torrent.getNodeId())) return false;
+
+        NodeConnection[] replaced = new NodeConnection[1];
+        NodeConnection kept = connections.compute(nodeId, (id, existing) -> {
+            if (existing == null || existing == connection || !existing.isOpen()) return connection;
+            if (preferred(connection) && !preferred(existing)) {
+                replaced[0] = existing;
+                return connection;
+            }
+            return existing;
+        });
+        if (kept != connection) return false;
+
+        nodeIds.put(connection.getRemoteAddress() + ":" + connection.getRemotePort(), nodeId);
+        if (advertisedAddress != null) {
+            nodeIds.put(advertisedAddress + ":" + connection.getRemotePort(), nodeId);
+        }
+        if (replaced[0] != null) {
+            replaced[0].close(); // a thread dela termina e trata do resto
         }
+        return true;
+    }
 
-        for (NodeConnection connection : connectionsCopy) {
-            try {
-                if (collector != null) {
-                    connection.setSearchResultsCollector(collector);
+    // ligação iniciada pelo nó de menor identidade: os dois lados escolhem a mesma
+    private boolean preferred(NodeConnection connection) {
+        boolean localSmaller = torrent.getNodeId().compareTo(connection.getNodeId()) < 0;
+        return connection.isOutbound() == localSmaller;
+    }
+
+    private static void recordOpen(NodeConnection connection, boolean outbound) {
+        ConnectionOpenEvent event = new ConnectionOpenEvent();
+        if (event.shouldCommit()) {
+            event.peer = connection.getRemoteAddress() + ":" + connection.getRemotePort();
+            event.outbound = outbound;
+            event.commit();
+        }
+    }
+
+    // obtém um fluxo de dados exclusivo para o nó desta conexão, reutilizando um livre se existir
+    public NodeConnection acquireDataStream(NodeConnection control) {
+        String address = control.getRemoteAddress();
+        int remotePort = control.getRemotePort();
+        String key = control.getNodeId();
+
+        synchronized(idleDataStreams) {
+            List<NodeConnection> idle = idleDataStreams.get(key);
+            while (idle != null && !idle.isEmpty()) {
+                NodeConnection stream = idle.remove(idle.size() - 1);
+                if (stream.isOpen()) return stream;
+                dataStreams.remove(stream);
+            }
+        }
+
+        try {
+            NodeConnection stream = handshake(openSocket(address, remotePort));
+            stream.setNodeId(key);
+            stream.sendMessage(new NewDataStreamRequest(InetAddress.getLocalHost().getHostAddress(), this.port,
+                    torrent.getNodeId()));
+
+            synchronized(idleDataStreams) {
+                dataStreams.add(stream);
+            }
+            new Thread(stream).start();
+            recordOpen(stream, true);
+            return stream;
+        } catch (IOException e) {
+            System.err.println("Falha ao abrir fluxo de dados para " + address + ":" + remotePort + ": "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
+    // devolve o fluxo ao conjunto livre, ou fecha-o se já houver fluxos livres suficientes
+    public void releaseDataStream(NodeConnection stream) {
+        String key = stream.getNodeId();
+        synchronized(idleDataStreams) {
+            List<NodeConnection> idle = idleDataStreams.computeIfAbsent(key, k -> new ArrayList<>());
+            if (running && stream.isOpen() && idle.size() < Constants.MAX_DATA_STREAMS_PER_PEER) {
+                idle.add(stream);
+                return;
+            }
+            dataStreams.remove(stream);
+        }
+        stream.close();
+    }
+
+    // uma ligação aceite identificou-se como fluxo de dados: não entra na tabela de encaminhamento
+    void registerDataStream(NodeConnection stream) {
+        pending.remove(stream);
+        synchronized(idleDataStreams) {
+            dataStreams.add(stream);
+        }
+    }
+
+    // ligação terminou: deixa de ser usada em pesquisas e downloads
+    void connectionClosed(NodeConnection connection) {
+        pending.remove(connection);
+        boolean removed = connection.getNodeId() != null && connections.remove(connection.getNodeId(), connection);
+        synchronized(idleDataStreams) {
+            if (dataStreams.remove(connection)) {
+                for (List<NodeConnection> idle : idleDataStreams.values()) {
+                    idle.remove(connection);
                 }
+            }
+        }
+        if (removed && running) {
+            torrent.getDownloadManager().peerDisconnected(connection);
+            torrent.notifyConnectionsChanged();
+        }
+    }
+
+    // nós ligados a quem enviar a pesquisa: no último salto (ttl 1) só os cujo resumo de partilhas a pode
+    // satisfazer (sem resumo, contam sempre); antes disso todos, porque o resumo não cobre os vizinhos deles.
+    // com o SEARCH_TTL por omissão (3) quem pesquisa envia a todos e o corte só acontece dois saltos adiante;
+    // com -Disctorrent.searchTtl=1 o corte acontece já em quem pesquisa
+    public List<NodeConnection> getSearchTargets(SearchQuery query, int ttl) {
+        List<NodeConnection> targets = new ArrayList<>();
+        for (NodeConnection connection : connections.values()) {
+            if (ttl > 1 || connection.mightHave(query)) {
+                targets.add(connection);
+            }
+        }
+        return targets;
+    }
+
+    // envia pesquisa para os nós escolhidos
+    public void broadcastSearch(Object search, List<NodeConnection> targets, SearchResultsCollector collector) {
+        for (NodeConnection connection : targets) {
+            try {
                 connection.sendMessage(search); // envia para cada nó
             } catch (IOException e) {
-                synchronized(connections) {
-                    connections.remove(connection); // remove se falhou
-                }
+                connections.remove(connection.getNodeId(), connection); // remove se falhou
                 if (collector != null) {
-                    collector.addResults(Collections.emptyList()); // conta como resposta vazia
+                    collector.nodeFinished(); // conta como resposta vazia
                 }
             }
         }
     }
 
-    // encontra conexões para um nó específico
+    // envia mensagem a todos os nós ligados, ignorando os que falham
+    public void sendToAll(Object message) {
+        for (NodeConnection connection : getConnections()) {
+            try {
+                connection.sendMessage(message);
+            } catch (IOException e) {
+                System.err.println("Falha ao enviar para " + connection.getRemoteAddress() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // ligação de controlo ao nó com esta identidade, ou null
+    public NodeConnection getConnection(String nodeId) {
+        return nodeId == null ? null : connections.get(nodeId);
+    }
+
+    // encontra conexões para um nó específico, por qualquer endereço que ele tenha usado
     public List<NodeConnection> getConnectionsForNode(String address, int port) {
-        List<NodeConnection> result = new ArrayList<>();
-        synchronized(connections) {
-            for (NodeConnection conn : connections) {
-                if (conn.getRemoteAddress().equals(address) &&
-                        conn.getRemotePort() == port) {
-                    result.add(conn);
+        NodeConnection connection = getConnection(nodeIds.get(address + ":" + port));
+        return connection != null ? List.of(connection) : List.of();
+    }
+
+    // conexões para o dono de um resultado: pela identidade, e pelo endereço nos resultados sem ela
+    public List<NodeConnection> getConnectionsFor(FileSearchResult result) {
+        NodeConnection connection = getConnection(result.nodeId());
+        if (connection != null) return List.of(connection);
+        return getConnectionsForNode(result.nodeAddress(), result.nodePort());
+    }
+
+    // conexões para o dono de um resultado, ligando primeiro se ainda não existe nenhuma
+    // (resultados de pesquisa que chegaram por outros nós vêm de nós a que não estamos ligados)
+    // (bloqueia até CONNECT_TIMEOUT_MS: só para threads de ligação, nunca para a interface)
+    public List<NodeConnection> getOrConnect(FileSearchResult result) {
+        List<NodeConnection> found = getConnectionsFor(result);
+        if (found.isEmpty() && canConnectTo(result)) {
+            // vários downloads podem pedir o mesmo dono ao mesmo tempo: uma só ligação, os outros esperam por ela
+            String key = result.nodeAddress() + ":" + result.nodePort();
+            Object lock = connecting.computeIfAbsent(key, k -> new Object());
+            synchronized(lock) {
+                found = getConnectionsFor(result);
+                if (!found.isEmpty()) return found;
+                try {
+                    return List.of(openConnection(result.nodeAddress(), result.nodePort()));
+                } catch (IOException e) {
+                    torrent.notifyError("Erro de Ligação",
+                            "Falha ao ligar a " + result.nodeAddress() + ":" + result.nodePort());
+                } finally {
+                    // só enquanto a ligação está em curso: quem ainda espera pelo lock volta a procurar a ligação
+                    connecting.remove(key, lock);
                 }
             }
         }
-        return result;
+        return found;
+    }
+
+    // dono de um resultado a que ainda podemos ligar (não é o próprio nó)
+    public boolean canConnectTo(FileSearchResult result) {
+        if (torrent.getNodeId().equals(result.nodeId())) return false;
+        return result.nodeId() != null || result.nodePort() != this.port;
+    }
+
+    // bytes recebidos e enviados por nó, somando a ligação de controlo e os fluxos de dados
+    public Map<String, long[]> getTrafficByNode() {
+        Map<String, long[]> traffic = new HashMap<>();
+        List<NodeConnection> all = new ArrayList<>(connections.values());
+        synchronized(idleDataStreams) {
+            all.addAll(dataStreams);
+        }
+        for (NodeConnection connection : all) {
+            if (connection.getNodeId() == null) continue;
+            long[] bytes = traffic.computeIfAbsent(connection.getNodeId(), k -> new long[2]);
+            bytes[0] += connection.getBytesIn();
+            bytes[1] += connection.getBytesOut();
+        }
+        return traffic;
+    }
+
+    // cópia das conexões ativas
+    public List<NodeConnection> getConnections() {
+        return new ArrayList<>(connections.values());
     }
 
     // lista de conexões para GUI
     public List<String> getConnectionsList() {
-        synchronized(connections) {
-            List<String> result = new ArrayList<>();
-            for (NodeConnection conn : connections) {
-                result.add(conn.getRemoteAddress() + ":" + conn.getRemotePort());
-            }
-            return result;
+        List<String> result = new ArrayList<>();
+        for (NodeConnection conn : connections.values()) {
+            result.add(conn.getRemoteAddress() + ":" + conn.getRemotePort());
         }
+        return result;
     }
 
     public int getActiveConnectionsCount() {
-        synchronized(connections) {
-            return connections.size();
-        }
+        return connections.size();
     }
 
     // termina todas as conexões
     public void shutdown() {
         running = false;
-        synchronized(connections) {
-            for (NodeConnection connection : connections) {
-                connection.close();
+        for (NodeConnection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+        for (NodeConnection connection : pending) {
+            connection.close();
+        }
+        pending.clear();
+        synchronized(idleDataStreams) {
+            for (NodeConnection stream : dataStreams) {
+                stream.close();
             }
-            connections.clear();
+            dataStreams.clear();
+            idleDataStreams.clear();
         }
         try {
             serverSocket.close();
@@ -1,13 +1,26 @@
 package pt.iscte.pcd.isctorrent.network;
 
+import pt.iscte.pcd.isctorrent.core.Constants;
 import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.core.QueryMatcher;
+import pt.iscte.pcd.isctorrent.core.ReadAheadTracker;
+import pt.iscte.pcd.isctorrent.core.ShareSummary;
+import pt.iscte.pcd.isctorrent.delta.Delta;
+import pt.iscte.pcd.isctorrent.jfr.BlockServeEvent;
+import pt.iscte.pcd.isctorrent.jfr.ConnectionCloseEvent;
+import pt.iscte.pcd.isctorrent.jfr.SearchReplyEvent;
+import pt.iscte.pcd.isctorrent.metrics.NodeMetrics;
 import pt.iscte.pcd.isctorrent.protocol.*;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.*;
 import java.net.Socket;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 // representa uma ligação com outro nó, usando canais de objetos
 public class NodeConnection implements Runnable {
@@ -15,18 +28,49 @@ public class NodeConnection implements Runnable {
     private final ObjectInputStream input; // canal de objetos entrada
     private final ObjectOutputStream output; // canal de objetos saída
     private final IscTorrent torrent;
-    private SearchResultsCollector searchResultsCollector;
     private volatile boolean running = true;
     private Object lastResponse; // para coordenação de respostas
-    private int remoteServerPort = -1; // porta do servidor remoto
+    private volatile int remoteServerPort = -1; // porta do servidor remoto
+    private volatile String remoteNodeId; // identidade do nó remoto, conhecida no handshake
+    private volatile boolean outbound = false; // ligação iniciada por este nó
+    private final LongAdder bytesIn = new LongAdder(); // tráfego desta ligação
+    private final LongAdder bytesOut = new LongAdder();
+    private final ReadAheadTracker readAhead = new ReadAheadTracker(); // pedidos sequenciais desta ligação
+
+    // prioridade do controlo: as mensagens volumosas seguem em frames e a escrita tem duas filas de espera;
+    // quando o socket fica livre entram primeiro as mensagens de controlo, à frente dos frames já em espera
+    private static final int FRAME_SIZE = 16 * 1024;
+    private final Object writeGate = new Object();
+    private boolean writing = false; // alguém está a escrever no socket (guardado por writeGate)
+    private int controlWaiting = 0; // mensagens de controlo à espera da vez (guardado por writeGate)
+    private final ReentrantLock exchangeLock = new ReentrantLock(); // um pedido com resposta de cada vez
+    private final AtomicLong nextBulkId = new AtomicLong();
+    private final Map<Long, ByteArrayOutputStream> incomingBulk = new HashMap<>(); // só a thread de leitura
+    private volatile boolean dataStream = false; // fluxo dedicado a blocos
+    private volatile ShareSummary remoteSummary; // o que o nó remoto partilha, para encaminhar pesquisas
+    private ExecutorService dataRequests; // pedidos de dados fora da thread de leitura da ligação de controlo
+    private final TrafficRecorder recorder; // null se a gravação de tráfego estiver desligada
+    private final int traceId;
+    private long recordedBytesIn = 0; // bytes de entrada já atribuídos a mensagens gravadas (thread de leitura)
+
+    // pedido de dados servido fora da thread de leitura
+    private interface DataRequest {
+        void handle() throws IOException;
+    }
 
     public NodeConnection(Socket socket, IscTorrent torrent) throws IOException {
         this.socket = socket;
         this.torrent = torrent;
+        socket.setTcpNoDelay(true); // mensagens pequenas de controlo não esperam pelo ACK dos dados anteriores
+        NodeMetrics metrics = torrent.getMetrics();
         // ordem importante: output primeiro para evitar deadlock
-        this.output = new ObjectOutputStream(socket.getOutputStream());
+        this.output = new ObjectOutputStream(new BufferedOutputStream(
+                metrics.countOutput(socket.getOutputStream(), bytesOut), FRAME_SIZE + 1024));
         this.output.flush();
-        this.input = new ObjectInputStream(socket.getInputStream());
+        this.input = new ObjectInputStream(metrics.countInput(socket.getInputStream(), bytesIn));
+        this.recorder = torrent.getTrafficRecorder();
+        this.traceId = recorder != null
+                ? recorder.connectionOpened(getRemoteAddress() + ":" + socket.getPort()) : -1;
     }
 
     @Override
@@ -35,6 +79,7 @@ public class NodeConnection implements Runnable {
             try {
                 Object message = input.readObject(); // recebe mensagem do canal
                 if (message != null) {
+                    if (recorder != null) recordInbound(message);
                     handleMessage(message);
                 }
             } catch (IOException e) {
@@ -45,90 +90,511 @@ public class NodeConnection implements Runnable {
             } catch (ClassNotFoundException e) {
                 System.err.println("Tipo de mensagem desconhecido");
                 break;
+            } catch (RuntimeException e) {
+                // mensagem que o nó não soube tratar: a ligação fecha e sai das tabelas em vez de ficar sem leitor
+                System.err.println("Erro ao processar mensagem de " + getRemoteAddress() + ":" + getRemotePort()
+                        + ": " + e);
+                break;
             }
         }
         close();
+        torrent.getConnectionManager().connectionClosed(this); // deixa de ser usada
     }
 
     // processa diferentes tipos de mensagem
     private void handleMessage(Object message) throws IOException {
         if (message instanceof NewConnectionRequest request) {
             this.remoteServerPort = request.port(); // guarda porta do servidor remoto
+            this.remoteNodeId = request.nodeId() != null ? request.nodeId() : getRemoteAddress() + ":" + request.port();
+            sendMessage(new NewConnectionAnswer(torrent.getNodeId(), torrent.getPort()));
+            if (!torrent.getConnectionManager().identified(this, request.address())) {
+                close(); // já existe outra ligação a este nó (ou é o próprio nó)
+                return;
+            }
             System.out.println("Aceite conexão de " + getRemoteAddress() + ":" + getRemotePort());
-            torrent.getGui().updateConnectionsList();
+            torrent.notifyConnectionsChanged();
+            torrent.getDownloadManager().peerConnected(this); // pode ter ficheiros em download
+            sendMessage(torrent.getFileManager().getShareSummary().toMessage());
+        }
+        else if (message instanceof ShareSummaryMessage summary) {
+            handleSummary(summary);
+        }
+        else if (message instanceof ShareSummaryUpdate update) {
+            ShareSummary current = remoteSummary;
+            try {
+                if (current != null) {
+                    current.apply(update); // tamanho diferente: segue-se o resumo completo
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage() + " de " + getRemoteAddress() + ":" + getRemotePort());
+            }
+        }
+        else if (message instanceof NewDataStreamRequest request) {
+            this.remoteServerPort = request.port();
+            this.remoteNodeId = request.nodeId() != null ? request.nodeId() : getRemoteAddress() + ":" + request.port();
+            this.dataStream = true;
+            torrent.getConnectionManager().registerDataStream(this); // só serve blocos
+        }
+        else if (message instanceof BulkFrame frame) {
+            handleFrame(frame);
         }
         else if (message instanceof WordSearchMessage search) {
             handleSearch(search); // processa pesquisa
         }
         else if (message instanceof FileBlockRequestMessage request) {
-            handleBlockRequest(request); // processa pedido de bloco
+            serveUpload(request.fileName(), () -> handleBlockRequest(request)); // processa pedido de bloco
+        }
+        else if (message instanceof BatchBlockRequestMessage batch) {
+            String fileName = batch.blocks().isEmpty() ? "" : batch.blocks().get(0).fileName();
+            serveUpload(fileName, () -> handleBatchRequest(batch)); // blocos de vários ficheiros numa só resposta
+        }
+        else if (message instanceof DeltaSignatureMessage signature) {
+            serveUpload(signature.fileName(), () -> handleDeltaRequest(signature)); // diferenças face à cópia do outro nó
+        }
+        else if (message instanceof BlockHashesRequest request) {
+            serveData(() -> handleBlockHashesRequest(request));
+        }
+        else if (message instanceof BitfieldRequest request) {
+            handleBitfieldRequest(request);
+        }
+        else if (message instanceof BitfieldMessage bitfield) {
+            torrent.getDownloadManager().updateSourceBitfield(this, bitfield);
         }
-        else if (message instanceof FileBlockAnswerMessage) {
+        else if (message instanceof HaveMessage have) {
+            torrent.getDownloadManager().updateSourceHave(this, have);
+        }
+        else if (message instanceof FileBlockAnswerMessage || message instanceof BlockUnavailableMessage
+                || message instanceof BatchBlockAnswerMessage || message instanceof DeltaMessage
+                || message instanceof BlockHashesMessage || message instanceof ChokeMessage) {
             // coordenação: notifica thread que espera resposta
             synchronized(this) {
                 lastResponse = message;
                 notifyAll(); // acorda thread que espera
             }
         }
+        else if (message instanceof SearchQueryMessage query) {
+            handleQuery(query); // pesquisa com filtros, respondida em páginas
+        }
+        else if (message instanceof SearchResultPage page) {
+            if (page.nodeAddress().equals(Constants.LOCAL_ADDRESS) && ownedByRemote(page.nodeId(), page.nodePort())) {
+                page = page.withNodeAddress(getRemoteAddress()); // resultados do próprio vizinho
+            }
+            torrent.getSearchRouter().pageReceived(page);
+        }
         else if (message instanceof List) {
+            // resposta de um nó antigo a uma WordSearchMessage
             @SuppressWarnings("unchecked")
-            List<FileSearchResult> results = (List<FileSearchResult>) message;
+            List<FileSearchResult> results = new ArrayList<>((List<FileSearchResult>) message);
+            for (int i = 0; i < results.size(); i++) {
+                FileSearchResult result = results.get(i);
+                if (result.nodeAddress().equals(Constants.LOCAL_ADDRESS) && ownedByRemote(result.nodeId(), result.nodePort())) {
+                    results.set(i, result.withNode(getRemoteAddress(), remoteNodeId));
+                }
+            }
+            torrent.notifySearchResults(results); // mostra na interface
+        }
+    }
+
+    // resultados do próprio vizinho (e não de um nó mais longe, reencaminhados por ele)
+    private boolean ownedByRemote(String nodeId, int port) {
+        return nodeId != null ? nodeId.equals(remoteNodeId) : port == remoteServerPort;
+    }
+
+    // resposta ao pedido de ligação, lida antes de arrancar a thread desta ligação
+    NewConnectionAnswer readAnswer() throws IOException {
+        outbound = true;
+        try {
+            socket.setSoTimeout(Constants.CONNECT_TIMEOUT_MS);
+            Object message = input.readObject();
+            socket.setSoTimeout(0);
+            if (recorder != null) recordInbound(message);
+            if (!(message instanceof NewConnectionAnswer answer)) {
+                throw new IOException("Resposta inesperada ao pedido de ligação");
+            }
+            this.remoteServerPort = answer.port();
+            this.remoteNodeId = answer.nodeId();
+            return answer;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Tipo de mensagem desconhecido", e);
+        }
+    }
+
+    // fluxo de dados aberto por este nó: pertence ao nó da ligação de controlo
+    void setNodeId(String nodeId) {
+        this.remoteNodeId = nodeId;
+        this.outbound = true;
+    }
+
+    // junta os frames de uma mensagem volumosa e processa-a quando chega o último
+    private void handleFrame(BulkFrame frame) throws IOException {
+        ByteArrayOutputStream buffer = incomingBulk.computeIfAbsent(frame.id(), id -> new ByteArrayOutputStream());
+        buffer.write(frame.data());
+        if (!frame.last()) return;
+
+        incomingBulk.remove(frame.id());
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            Object message = in.readObject();
+            if (recorder != null) recorder.inbound(traceId, message, buffer.size()); // gravada já montada
+            handleMessage(message);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Tipo de mensagem desconhecido", e);
+        }
+    }
 
-            if (searchResultsCollector != null) {
-                searchResultsCollector.addResults(results); // adiciona ao collector
-                searchResultsCollector = null;
+    // nos fluxos de dados os pedidos são servidos pela própria thread de leitura; na ligação de controlo
+    // passam para uma thread à parte (por ordem), para a leitura continuar a atender pesquisas
+    private void serveUpload(String fileName, DataRequest request) throws IOException {
+        // os dados só seguem quando o nó tem slot de upload; sem slot responde logo, para quem pede
+        // recolocar o pedido e tentar outra fonte em vez de ficar à espera
+        serveData(() -> {
+            if (torrent.getUploadSlots().tryAcquire(this)) {
+                request.handle();
             } else {
-                torrent.getGui().addSearchResults(results); // mostra na GUI
+                sendMessage(new ChokeMessage(fileName, Constants.RECHOKE_INTERVAL_MS));
+            }
+        });
+    }
+
+    private void serveData(DataRequest request) throws IOException {
+        if (dataStream) {
+            request.handle();
+            return;
+        }
+        synchronized(this) {
+            if (dataRequests == null) {
+                dataRequests = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "data-requests-" + getRemotePort());
+                    thread.setDaemon(true);
+                    return thread;
+                });
             }
         }
+        try {
+            dataRequests.execute(() -> {
+                try {
+                    request.handle();
+                } catch (IOException e) {
+                    close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Ligação fechada", e);
+        }
+    }
+
+    private void handleBlockHashesRequest(BlockHashesRequest request) throws IOException {
+        byte[] hashes = torrent.getFileManager().getBlockHashes(request.fileName());
+        sendMessage(hashes != null ? new BlockHashesMessage(request.fileName(), hashes)
+                : new BlockUnavailableMessage(request.fileName(), 0));
     }
 
     // responde a pesquisa de ficheiros
     private void handleSearch(WordSearchMessage search) throws IOException {
-        List<FileSearchResult> results = torrent.getFileManager().searchFiles(search.keyword());
+        SearchReplyEvent event = new SearchReplyEvent();
+        event.begin();
+        torrent.getMetrics().searchAnswered();
+        List<FileSearchResult> results = torrent.searchLocal(new QueryMatcher(SearchQuery.of(search.keyword())));
         sendMessage(results); // envia resultados da pesquisa
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.peer = getRemoteAddress() + ":" + getRemotePort();
+            event.keyword = search.keyword();
+            event.results = results.size();
+            event.commit();
+        }
+    }
+
+    // resumo completo do nó remoto: um maior substitui o atual, um do mesmo tamanho junta-se
+    private void handleSummary(ShareSummaryMessage summary) {
+        ShareSummary current = remoteSummary;
+        try {
+            if (current == null || current.getBitCount() < summary.bits().length * 64) {
+                remoteSummary = new ShareSummary(summary);
+            } else {
+                current.merge(summary);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + " de " + getRemoteAddress() + ":" + getRemotePort());
+        }
+    }
+
+    // false só quando o resumo do nó garante que nada satisfaz a pesquisa
+    public boolean mightHave(SearchQuery query) {
+        ShareSummary summary = remoteSummary;
+        return summary == null || summary.mightMatch(query);
+    }
+
+    // pesquisa com filtros: respondida em páginas e reencaminhada aos vizinhos enquanto o ttl permite
+    private void handleQuery(SearchQueryMessage message) throws IOException {
+        SearchReplyEvent event = new SearchReplyEvent();
+        event.begin();
+        torrent.getMetrics().searchAnswered();
+        int results = torrent.getSearchRouter().handleQuery(this, message);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.peer = getRemoteAddress() + ":" + getRemotePort();
+            event.keyword = message.query().pattern();
+            event.results = results;
+            event.commit();
+        }
     }
 
     // responde a pedido de bloco de ficheiro
     private void handleBlockRequest(FileBlockRequestMessage request) throws IOException {
+        NodeMetrics metrics = torrent.getMetrics();
+        metrics.uploadStarted();
+        int served = 0;
+        BlockServeEvent event = new BlockServeEvent();
+        event.begin();
         try {
-            byte[] data = torrent.getFileManager().readFileBlock(
-                    request.fileName(), request.offset(), request.length());
+            long readStart = System.nanoTime();
+            byte[] data = null;
+            if (torrent.getFileManager().getFileSize(request.fileName()) >= 0) {
+                data = torrent.getFileManager().readFileBlock(
+                        request.fileName(), request.offset(), request.length(), readAhead);
+            } else {
+                data = torrent.getDownloadManager().readPartialBlock(
+                        request.fileName(), request.offset(), request.length());
+            }
+            long writeStart = System.nanoTime();
 
-            FileBlockAnswerMessage response = new FileBlockAnswerMessage(data, request.offset());
-            output.writeObject(response);
-            output.flush();
+            if (data == null) { // ficheiro em download sem este bloco
+                sendMessage(new BlockUnavailableMessage(request.fileName(), request.offset()));
+                return;
+            }
+            sendMessage(new FileBlockAnswerMessage(data, request.offset()));
+            served = data.length;
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.peer = getRemoteAddress() + ":" + getRemotePort();
+                event.file = request.fileName();
+                event.offset = request.offset();
+                event.size = served;
+                event.readDuration = writeStart - readStart;
+                event.writeDuration = System.nanoTime() - writeStart;
+                event.commit();
+            }
         } catch (IOException e) {
             System.err.println("Falha ao processar bloco: " + e.getMessage());
             throw new IOException("Erro ao processar bloco", e);
+        } finally {
+            metrics.uploadFinished(served);
+        }
+    }
+
+    // responde a um lote de pedidos de bloco, com null nos blocos que o nó não tem
+    private void handleBatchRequest(BatchBlockRequestMessage batch) throws IOException {
+        NodeMetrics metrics = torrent.getMetrics();
+        metrics.uploadStarted();
+        int served = 0;
+        try {
+            List<byte[]> data = new ArrayList<>(batch.blocks().size());
+            for (FileBlockRequestMessage request : batch.blocks()) {
+                byte[] block = readBlock(request);
+                data.add(block);
+                if (block != null) served += block.length;
+            }
+            sendMessage(new BatchBlockAnswerMessage(data));
+        } finally {
+            metrics.uploadFinished(served);
+        }
+    }
+
+    // lê o bloco do ficheiro em disco ou do download em curso; null se o nó não o tem
+    private byte[] readBlock(FileBlockRequestMessage request) {
+        try {
+            if (torrent.getFileManager().getFileSize(request.fileName()) >= 0) {
+                return torrent.getFileManager().readFileBlock(
+                        request.fileName(), request.offset(), request.length(), readAhead);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return torrent.getDownloadManager().readPartialBlock(request.fileName(), request.offset(), request.length());
+    }
+
+    // calcula o delta entre a cópia local e a assinatura recebida
+    private void handleDeltaRequest(DeltaSignatureMessage signature) throws IOException {
+        NodeMetrics metrics = torrent.getMetrics();
+        metrics.uploadStarted();
+        int served = 0;
+        try {
+            byte[] data;
+            try {
+                data = torrent.getFileManager().readFile(signature.fileName());
+            } catch (IOException e) {
+                sendMessage(new BlockUnavailableMessage(signature.fileName(), 0));
+                return;
+            }
+            DeltaMessage delta = Delta.encode(signature.fileName(), data, signature);
+            sendMessage(delta);
+            served = (int) Delta.literalBytes(delta);
+        } finally {
+            metrics.uploadFinished(served);
+        }
+    }
+
+    // responde com os blocos que o nó tem do ficheiro
+    private void handleBitfieldRequest(BitfieldRequest request) throws IOException {
+        long size = torrent.getFileManager().getFileSize(request.fileName());
+        BitfieldMessage bitfield;
+        if (size >= 0) {
+            int totalBlocks = (int) ((size + Constants.BLOCK_SIZE - 1) / Constants.BLOCK_SIZE);
+            bitfield = new BitfieldMessage(request.fileName(), totalBlocks, true, null);
+        } else {
+            bitfield = torrent.getDownloadManager().getLocalBitfield(request.fileName(), this);
+            if (bitfield == null) { // não tem nada deste ficheiro
+                bitfield = new BitfieldMessage(request.fileName(), 0, false, new long[0]);
+            }
+        }
+        sendMessage(bitfield);
+    }
+
+    // envia mensagem pelo canal de objetos; as volumosas vão em frames para não atrasar o controlo
+    public void sendMessage(Object message) throws IOException {
+        long bytes;
+        if (message instanceof BatchBlockAnswerMessage || message instanceof DeltaMessage
+                || message instanceof BlockHashesMessage || message instanceof DeltaSignatureMessage
+                || message instanceof ShareSummaryMessage) {
+            bytes = sendFramed(message);
+        } else {
+            // blocos simples cabem num frame mas são dados: esperam atrás do controlo
+            bytes = write(message, !(message instanceof FileBlockAnswerMessage));
+        }
+        if (recorder != null) recorder.outbound(traceId, message, bytes);
+    }
+
+    // os frames não são gravados: só a mensagem inteira
+    private void recordInbound(Object message) {
+        long read = bytesIn.sum();
+        if (!(message instanceof BulkFrame)) {
+            recorder.inbound(traceId, message, read - recordedBytesIn);
+        }
+        recordedBytesIn = read;
+    }
+
+    private long sendFramed(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        byte[] data = bytes.toByteArray();
+        long id = nextBulkId.incrementAndGet();
+        long written = 0;
+        for (int offset = 0; offset < data.length; offset += FRAME_SIZE) {
+            int end = Math.min(data.length, offset + FRAME_SIZE);
+            written += write(new BulkFrame(id, end == data.length, Arrays.copyOfRange(data, offset, end)), false);
         }
+        return written;
     }
 
-    // envia mensagem pelo canal de objetos
-    public synchronized void sendMessage(Object message) throws IOException {
-        if (socket.isClosed()) {
-            throw new IOException("Socket fechado");
+    // devolve os bytes escritos no socket
+    private long write(Object message, boolean control) throws IOException {
+        acquireWrite(control);
+        try {
+            if (socket.isClosed()) {
+                throw new IOException("Socket fechado");
+            }
+            long before = bytesOut.sum();
+            output.writeObject(message);
+            output.reset(); // não guardar referências a tudo o que já foi enviado
+            output.flush();
+            return bytesOut.sum() - before;
+        } finally {
+            releaseWrite();
+        }
+    }
+
+    // dados só avançam quando não há controlo à espera; o controlo só espera pela escrita em curso
+    private void acquireWrite(boolean control) throws IOException {
+        synchronized(writeGate) {
+            if (control) controlWaiting++;
+            try {
+                while (writing || (!control && controlWaiting > 0)) {
+                    writeGate.wait();
+                }
+                writing = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Escrita interrompida");
+            } finally {
+                if (control) controlWaiting--;
+            }
         }
-        output.writeObject(message);
-        output.flush();
     }
 
-    // coordenação: espera por resposta usando wait/notify
-    public synchronized Object receiveResponse() throws IOException {
+    private void releaseWrite() {
+        synchronized(writeGate) {
+            writing = false;
+            writeGate.notifyAll();
+        }
+    }
+
+    // pedido com resposta: as respostas não levam identificador, por isso quem pede fica com a ligação
+    // desde o envio até à resposta e outros pedidos na mesma ligação esperam pela vez
+    public Object request(Object message) throws IOException {
+        exchangeLock.lock();
         try {
-            while(lastResponse == null) {
-                wait(); // bloqueia até resposta chegar
+            synchronized(this) {
+                lastResponse = null; // resposta tardia sem ninguém à espera
             }
-            Object response = lastResponse;
-            lastResponse = null;
-            return response;
-        } catch (InterruptedException e) {
-            throw new IOException(e);
+            sendMessage(message);
+            return receiveResponse();
+        } finally {
+            exchangeLock.unlock();
         }
     }
 
+    // coordenação: espera por resposta usando wait/notify, no máximo REQUEST_TIMEOUT_MS; sem resposta
+    // a ligação é fechada, porque uma resposta tardia seria tomada pela resposta ao pedido seguinte
+    private Object receiveResponse() throws IOException {
+        long deadline = System.currentTimeMillis() + Constants.REQUEST_TIMEOUT_MS;
+        boolean timedOut = false;
+        synchronized(this) {
+            try {
+                while(lastResponse == null) {
+                    if (!running) {
+                        throw new IOException("Ligação fechada");
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        timedOut = true;
+                        break;
+                    }
+                    wait(remaining); // bloqueia até resposta chegar, ligação fechar ou timeout
+                }
+                if (!timedOut) {
+                    Object response = lastResponse;
+                    lastResponse = null;
+                    return response;
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        close(); // fora do lock: close notifica quem espera
+        throw new IOException("Sem resposta de " + getRemoteAddress() + ":" + getRemotePort());
+    }
+
     public void close() {
+        boolean wasRunning = running;
         running = false;
+        if (wasRunning) {
+            if (recorder != null) recorder.connectionClosed(traceId);
+            ConnectionCloseEvent event = new ConnectionCloseEvent();
+            if (event.shouldCommit()) {
+                event.peer = getRemoteAddress() + ":" + getRemotePort();
+                event.bytesIn = bytesIn.sum();
+                event.bytesOut = bytesOut.sum();
+                event.commit();
+            }
+        }
+        synchronized(this) {
+            if (dataRequests != null) dataRequests.shutdownNow();
+        }
         try {
             if (input != null) input.close();
             if (output != null) output.close();
@@ -136,18 +602,39 @@ public class NodeConnection implements Runnable {
         } catch (IOException e) {
             System.err.println("Falha ao encerrar ligação: " + e.getMessage());
         }
+        // depois de fechar o socket, para não esperar por uma escrita bloqueada
+        synchronized(this) {
+            notifyAll(); // acorda quem espera por resposta
+        }
+    }
+
+    public boolean isOpen() {
+        return running && !socket.isClosed();
     }
 
     public String getRemoteAddress() {
         return socket.getInetAddress().getHostAddress();
     }
 
+    public String getNodeId() {
+        return remoteNodeId;
+    }
+
+    public boolean isOutbound() {
+        return outbound;
+    }
+
     public int getRemotePort() {
         // retorna porta do servidor se conhecida, senão porta do socket
         return remoteServerPort != -1 ? remoteServerPort : socket.getPort();
     }
 
-    public void setSearchResultsCollector(SearchResultsCollector collector) {
-        this.searchResultsCollector = collector;
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
     }
+
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+package pt.iscte.pcd.isctorrent.network;
+
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// ligações em segundo plano: no máximo MAX_PENDING_CONNECTS em curso, cada uma com timeout, e novas tentativas
+// com espera exponencial para os nós conhecidos; os nós a que o utilizador se liga ficam guardados para o próximo arranque
+public class PeerBootstrap {
+    private final IscTorrent torrent;
+    private final Path peersFile; // null: sem persistência
+    private final Set<String> knownPeers = new LinkedHashSet<>(); // "endereço:porta", do mais antigo ao mais recente
+    private final ScheduledThreadPoolExecutor connector;
+
+    public PeerBootstrap(IscTorrent torrent, Path peersFile) {
+        this.torrent = torrent;
+        this.peersFile = peersFile;
+        this.connector = new ScheduledThreadPoolExecutor(Constants.MAX_PENDING_CONNECTS, runnable -> {
+            Thread thread = new Thread(runnable, "connector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+    }
+
+    // identidade do nó, guardada junto dos nós conhecidos (<peersFile>.id) para se manter entre arranques;
+    // sem ficheiro, uma nova em cada execução
+    public static String loadNodeId(Path peersFile) {
+        Path idFile = peersFile == null ? null : peersFile.resolveSibling(peersFile.getFileName() + ".id");
+        try {
+            if (idFile != null && Files.exists(idFile)) {
+                String saved = Files.readString(idFile, StandardCharsets.UTF_8).trim();
+                if (saved.matches("[0-9a-f]{16,}")) return saved;
+            }
+        } catch (IOException e) {
+            System.err.println("Falha ao ler identidade do nó: " + e.getMessage());
+        }
+
+        byte[] random = new byte[8];
+        new SecureRandom().nextBytes(random);
+        StringBuilder nodeId = new StringBuilder();
+        for (byte b : random) {
+            nodeId.append(String.format("%02x", b));
+        }
+        if (idFile != null) {
+            try {
+                Files.createDirectories(idFile.toAbsolutePath().getParent());
+                Files.writeString(idFile, nodeId + System.lineSeparator(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.err.println("Falha ao guardar identidade do nó: " + e.getMessage());
+            }
+        }
+        return nodeId.toString();
+    }
+
+    // liga aos nós guardados, todos em paralelo
+    public void reconnectKnownPeers() {
+        List<String> peers;
+        synchronized(knownPeers) {
+            peers = new ArrayList<>(knownPeers);
+        }
+        for (String peer : peers) {
+            int colon = peer.lastIndexOf(':');
+            schedule(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)), 1, false, 0);
+        }
+    }
+
+    // liga ao dono de um resultado que chegou por outros nós, numa das threads de ligação;
+    // onDone recebe as ligações ao dono (vazia se a ligação falhar)
+    public void connectToOwnerAsync(FileSearchResult result, Consumer<List<NodeConnection>> onDone) {
+        try {
+            connector.execute(() -> onDone.accept(torrent.getConnectionManager().getOrConnect(result)));
+        } catch (RejectedExecutionException e) {
+            onDone.accept(List.of()); // a terminar
+        }
+    }
+
+    // ligação pedida pelo utilizador: sem bloquear a interface, e um erro se falhar
+    public void connectAsync(String address, int port) {
+        schedule(address, port, Constants.CONNECT_ATTEMPTS, true, 0);
+    }
+
+    public List<String> getKnownPeers() {
+        synchronized(knownPeers) {
+            return new ArrayList<>(knownPeers);
+        }
+    }
+
+    private void schedule(String address, int port, int attempt, boolean userRequested, long delayMs) {
+        try {
+            connector.schedule(() -> attempt(address, port, attempt, userRequested), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // a terminar
+        }
+    }
+
+    private void attempt(String address, int port, int attempt, boolean userRequested) {
+        ConnectionManager connections = torrent.getConnectionManager();
+        if (!connections.getConnectionsForNode(address, port).isEmpty()) {
+            remember(address, port); // já ligado (ex: o outro nó ligou primeiro)
+            return;
+        }
+        try {
+            connections.openConnection(address, port);
+            remember(address, port);
+        } catch (IOException e) {
+            if (userRequested) {
+                torrent.notifyError("Erro de Ligação", "Falha ao ligar a " + address + ":" + port);
+            } else if (attempt < Constants.CONNECT_ATTEMPTS) {
+                long backoff = Constants.CONNECT_BACKOFF_MS << (attempt - 1); // 1s, 2s, 4s, ...
+                schedule(address, port, attempt + 1, false, backoff);
+            } else {
+                System.err.println("Nó conhecido inacessível: " + address + ":" + port);
+            }
+        }
+    }
+
+    // o mais recente vai para o fim; os mais antigos saem quando a lista enche
+    private void remember(String address, int port) {
+        synchronized(knownPeers) {
+            String peer = address + ":" + port;
+            knownPeers.remove(peer);
+            knownPeers.add(peer);
+            while (knownPeers.size() > Constants.MAX_KNOWN_PEERS) {
+                knownPeers.remove(knownPeers.iterator().next());
+            }
+            save();
+        }
+    }
+
+    private void load() {
+        if (peersFile == null || !Files.exists(peersFile)) return;
+        try {
+            for (String line : Files.readAllLines(peersFile, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                int colon = line.lastIndexOf(':');
+                if (line.isEmpty() || line.startsWith("#") || colon <= 0) continue;
+                try {
+                    Integer.parseInt(line.substring(colon + 1));
+                    knownPeers.add(line);
+                } catch (NumberFormatException e) {
+                    System.err.println("Linha inválida em " + peersFile + ": " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Falha ao ler nós conhecidos: " + e.getMessage());
+        }
+    }
+
+    // escreve para um ficheiro temporário e substitui, para um arranque a meio da escrita não perder a lista
+    private void save() {
+        if (peersFile == null) return;
+        try {
+            Files.createDirectories(peersFile.toAbsolutePath().getParent());
+            Path temp = peersFile.resolveSibling(peersFile.getFileName() + ".tmp");
+            List<String> lines = new ArrayList<>();
+            lines.add("# nós conhecidos (endereço:porta)");
+            lines.addAll(knownPeers);
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, peersFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Falha ao guardar nós conhecidos: " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        connector.shutdownNow();
+    }
+}
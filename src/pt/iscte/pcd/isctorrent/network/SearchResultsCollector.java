@@ -4,26 +4,57 @@ import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
 import pt.iscte.pcd.isctorrent.sync.MyCountDownLatch;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
-// recolhe resultados de pesquisa usando CountDownLatch
+// recolhe resultados de pesquisa usando CountDownLatch: cada nó responde em páginas e conta ao enviar a última
 public class SearchResultsCollector {
     private final MyCountDownLatch latch; // coordenação para esperar por todas as respostas
     private final List<FileSearchResult> results; // todos os resultados recolhidos
+    private final Set<String> seen = new HashSet<>(); // ficheiro e dono: o mesmo resultado pode chegar por vários caminhos
+    private final int limit; // máximo de resultados da pesquisa
+    private final Consumer<List<FileSearchResult>> sink; // interface (quem pesquisou) ou nó anterior (reencaminhamento)
 
-    public SearchResultsCollector(MyCountDownLatch latch, List<FileSearchResult> initialResults) {
+    public SearchResultsCollector(MyCountDownLatch latch, List<FileSearchResult> initialResults, int limit,
+                                  Consumer<List<FileSearchResult>> sink) {
         this.latch = latch;
-        this.results = new ArrayList<>(initialResults); // inclui resultados locais
+        this.limit = limit;
+        this.sink = sink;
+        this.results = new ArrayList<>();
+        accept(initialResults); // inclui resultados locais, já entregues por quem criou o collector
     }
 
-    // adiciona resultados de um nó e decrementa contador
-    public synchronized void addResults(List<FileSearchResult> newResults) {
-        results.addAll(newResults);
-        latch.countDown(); // sinaliza que este nó respondeu
+    // adiciona uma página de um nó até ao limite e entrega os resultados novos
+    public void addPage(List<FileSearchResult> page) {
+        List<FileSearchResult> accepted = accept(page);
+        if (!accepted.isEmpty()) {
+            sink.accept(accepted);
+        }
+    }
+
+    private synchronized List<FileSearchResult> accept(List<FileSearchResult> page) {
+        List<FileSearchResult> accepted = new ArrayList<>();
+        for (FileSearchResult result : page) {
+            if (results.size() >= limit) break;
+            // o mesmo nó pode chegar por vários caminhos e com endereços diferentes: conta uma vez
+            String owner = result.nodeId() != null ? result.nodeId() : result.nodeAddress() + ":" + result.nodePort();
+            if (seen.add(result.fileName() + "@" + owner)) {
+                results.add(result);
+                accepted.add(result);
+            }
+        }
+        return accepted;
+    }
+
+    // o nó enviou a última página (ou não pôde ser contactado, contando como resposta vazia)
+    public void nodeFinished() {
+        latch.countDown();
     }
 
     // obtém todos os resultados recolhidos
     public synchronized List<FileSearchResult> getAllResults() {
         return new ArrayList<>(results);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,170 @@
+package pt.iscte.pcd.isctorrent.network;
+
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.core.QueryMatcher;
+import pt.iscte.pcd.isctorrent.protocol.FileSearchResult;
+import pt.iscte.pcd.isctorrent.protocol.SearchQueryMessage;
+import pt.iscte.pcd.isctorrent.protocol.SearchResultPage;
+import pt.iscte.pcd.isctorrent.sync.MyCountDownLatch;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+// pesquisa em vários saltos: cada nó responde com o que tem, reencaminha aos vizinhos enquanto o ttl permite
+// e devolve pelo mesmo caminho os resultados que recebe; pesquisas já vistas são respondidas vazias
+public class SearchRouter {
+    private final IscTorrent torrent;
+    private final Map<Long, SearchResultsCollector> pendingSearches = new ConcurrentHashMap<>(); // por queryId
+    private final Map<Long, Boolean> seenQueries; // queryId -> iniciada neste nó
+    private final ExecutorService relays; // espera pelos vizinhos sem bloquear a leitura da ligação
+
+    public SearchRouter(IscTorrent torrent) {
+        this.torrent = torrent;
+        this.seenQueries = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > Constants.SEEN_QUERIES;
+            }
+        });
+        this.relays = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "search-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // identificador de uma pesquisa iniciada aqui: se voltar num ciclo, é descartada
+    public long newQuery() {
+        long queryId = ThreadLocalRandom.current().nextLong();
+        seenQueries.put(queryId, true);
+        return queryId;
+    }
+
+    public void register(long queryId, SearchResultsCollector collector) {
+        pendingSearches.put(queryId, collector);
+    }
+
+    public void unregister(long queryId) {
+        pendingSearches.remove(queryId);
+    }
+
+    // página de resultados de um vizinho: conta para a pesquisa em curso (local ou reencaminhada)
+    public void pageReceived(SearchResultPage page) {
+        SearchResultsCollector collector = pendingSearches.get(page.queryId());
+        if (collector != null) {
+            collector.addPage(page.toResults());
+            if (page.last()) {
+                collector.nodeFinished(); // só depois de entregar, para a pesquisa terminar com tudo entregue
+            }
+        } else if (Boolean.TRUE.equals(seenQueries.get(page.queryId())) && page.names().length > 0) {
+            torrent.notifySearchResults(page.queryId(), page.toResults()); // páginas tardias de pesquisas nossas também são mostradas
+        }
+    }
+
+    // pesquisa vinda de um vizinho: responde com os resultados locais e, se o ttl permitir, reencaminha;
+    // devolve o número de resultados locais
+    public int handleQuery(NodeConnection from, SearchQueryMessage message) throws IOException {
+        if (seenQueries.putIfAbsent(message.queryId(), false) != null) {
+            // duplicado (ciclo ou vários caminhos): só fecha a resposta
+            sendPages(from, message, List.of(), true);
+            return 0;
+        }
+
+        List<FileSearchResult> results = torrent.searchLocal(new QueryMatcher(message.query()));
+        List<NodeConnection> targets = new ArrayList<>();
+        if (message.ttl() > 1) {
+            for (NodeConnection connection : torrent.getConnectionManager()
+                    .getSearchTargets(message.query(), message.ttl() - 1)) {
+                if (connection != from) targets.add(connection);
+            }
+        }
+
+        if (targets.isEmpty()) {
+            sendPages(from, message, results, true);
+            return results.size();
+        }
+        sendPages(from, message, results, false);
+        int remaining = Math.max(0, message.query().limit() - results.size());
+        try {
+            relays.execute(() -> relay(from, message, targets, remaining));
+        } catch (RejectedExecutionException e) {
+            sendPages(from, message, List.of(), true);
+        }
+        return results.size();
+    }
+
+    // reencaminha aos vizinhos e devolve o que chegar até ao timeout; a última página fecha a resposta
+    private void relay(NodeConnection from, SearchQueryMessage message, List<NodeConnection> targets, int limit) {
+        SearchQueryMessage forwarded = message.forwarded();
+        MyCountDownLatch latch = new MyCountDownLatch(targets.size());
+        Consumer<List<FileSearchResult>> upstream = results -> {
+            try {
+                sendPages(from, message, results, false);
+            } catch (IOException e) {
+                System.err.println("Falha ao devolver resultados: " + e.getMessage());
+            }
+        };
+        SearchResultsCollector collector = new SearchResultsCollector(latch, List.of(), limit, upstream);
+        register(message.queryId(), collector);
+        try {
+            torrent.getConnectionManager().broadcastSearch(forwarded, targets, collector);
+            latch.await(forwarded.timeoutMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            unregister(message.queryId());
+            try {
+                sendPages(from, message, List.of(), true);
+            } catch (IOException e) {
+                System.err.println("Falha ao devolver resultados: " + e.getMessage());
+            }
+        }
+    }
+
+    // envia resultados em páginas compactas, uma por dono e até pageSize nomes;
+    // os resultados sem identidade são os locais
+    private void sendPages(NodeConnection to, SearchQueryMessage message, List<FileSearchResult> results,
+                           boolean last) throws IOException {
+        Map<String, List<FileSearchResult>> byNode = new LinkedHashMap<>();
+        for (FileSearchResult result : results) {
+            String owner = result.nodeId() != null ? result.nodeId() : torrent.getNodeId();
+            byNode.computeIfAbsent(owner, k -> new ArrayList<>()).add(result);
+        }
+
+        int pageSize = Math.max(1, message.pageSize());
+        List<SearchResultPage> pages = new ArrayList<>();
+        for (Map.Entry<String, List<FileSearchResult>> entry : byNode.entrySet()) {
+            List<FileSearchResult> node = entry.getValue();
+            for (int start = 0; start < node.size(); start += pageSize) {
+                int end = Math.min(node.size(), start + pageSize);
+                String[] names = new String[end - start];
+                long[] sizes = new long[end - start];
+                for (int i = start; i < end; i++) {
+                    names[i - start] = node.get(i).fileName();
+                    sizes[i - start] = node.get(i).fileSize();
+                }
+                pages.add(new SearchResultPage(message.queryId(), node.get(0).nodeAddress(), node.get(0).nodePort(),
+                        entry.getKey(), names, sizes, false));
+            }
+        }
+        if (last) {
+            // a última página vai sempre, mesmo vazia, para quem espera poder contar a resposta
+            pages.add(new SearchResultPage(message.queryId(), Constants.LOCAL_ADDRESS, torrent.getPort(),
+                    torrent.getNodeId(), new String[0], new long[0], true));
+        }
+        for (SearchResultPage page : pages) {
+            to.sendMessage(page);
+        }
+    }
+
+    public void shutdown() {
+        relays.shutdownNow();
+    }
+}
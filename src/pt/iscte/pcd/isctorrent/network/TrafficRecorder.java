@@ -0,0 +1,145 @@
+package pt.iscte.pcd.isctorrent.network;
+
+import pt.iscte.pcd.isctorrent.protocol.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+// grava as mensagens de todas as ligações de um nó num trace binário compacto (formato em TrafficTrace):
+// tipo, tamanho e instante de cada mensagem; os pedidos levam também o conteúdo, para poderem ser repetidos
+public class TrafficRecorder {
+    // mensagens que outro nó pode repetir contra um nó real (o resto só conta tipo e tamanho)
+    private static final Set<Class<?>> REPLAYABLE = Set.of(
+            NewConnectionRequest.class, NewDataStreamRequest.class, WordSearchMessage.class,
+            SearchQueryMessage.class, FileBlockRequestMessage.class, BatchBlockRequestMessage.class,
+            BitfieldRequest.class, BlockHashesRequest.class, DeltaSignatureMessage.class);
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private final Map<Class<?>, Integer> typeCodes = new HashMap<>(); // dicionário escrito à medida
+    private int nextConnection = 0;
+    private boolean closed = false;
+
+    public TrafficRecorder(Path file, int nodePort) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        out.writeInt(TrafficTrace.MAGIC);
+        out.writeShort(TrafficTrace.VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(nodePort);
+    }
+
+    // trace em dir/trace-<porta>-<instante>.isct, ou null se a gravação falhar
+    public static TrafficRecorder open(String directory, int nodePort) {
+        Path file = Path.of(directory, "trace-" + nodePort + "-" + System.currentTimeMillis() + ".isct");
+        try {
+            System.out.println("A gravar tráfego em " + file);
+            return new TrafficRecorder(file, nodePort);
+        } catch (IOException e) {
+            System.err.println("Falha ao abrir trace: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // devolve o identificador da ligação no trace
+    public synchronized int connectionOpened(String peer) {
+        int id = nextConnection++;
+        if (closed) return id;
+        try {
+            out.writeByte(TrafficTrace.OPEN);
+            writeVarLong(id);
+            writeVarLong(System.nanoTime() - startNanos);
+            out.writeUTF(peer);
+        } catch (IOException e) {
+            failed(e);
+        }
+        return id;
+    }
+
+    public synchronized void connectionClosed(int connection) {
+        if (closed) return;
+        try {
+            out.writeByte(TrafficTrace.CLOSE);
+            writeVarLong(connection);
+            writeVarLong(System.nanoTime() - startNanos);
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    public void inbound(int connection, Object message, long bytes) {
+        record(connection, true, message, bytes);
+    }
+
+    public void outbound(int connection, Object message, long bytes) {
+        record(connection, false, message, bytes);
+    }
+
+    private void record(int connection, boolean inbound, Object message, long bytes) {
+        long time = System.nanoTime() - startNanos;
+        byte[] payload = REPLAYABLE.contains(message.getClass()) ? serialize(message) : null; // fora do lock
+
+        synchronized(this) {
+            if (closed) return;
+            try {
+                Integer code = typeCodes.get(message.getClass());
+                if (code == null) {
+                    code = typeCodes.size();
+                    typeCodes.put(message.getClass(), code);
+                    out.writeByte(TrafficTrace.TYPE);
+                    writeVarLong(code);
+                    out.writeUTF(message instanceof java.util.List ? "List" : message.getClass().getSimpleName());
+                }
+                out.writeByte(TrafficTrace.MESSAGE);
+                writeVarLong(time);
+                writeVarLong(connection);
+                out.writeBoolean(inbound);
+                writeVarLong(code);
+                writeVarLong(bytes);
+                writeVarLong(payload == null ? 0 : payload.length);
+                if (payload != null) out.write(payload);
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+    }
+
+    private static byte[] serialize(Object message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+            stream.writeObject(message);
+        } catch (IOException e) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    // inteiro sem sinal em grupos de 7 bits: instantes e tamanhos pequenos ocupam 1 a 3 bytes
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    // sem disco não vale a pena continuar a gravar: o nó segue normalmente
+    private void failed(IOException e) {
+        System.err.println("Falha ao gravar trace: " + e.getMessage());
+        closed = true;
+    }
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Falha ao fechar trace: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package pt.iscte.pcd.isctorrent.network;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// leitura de um trace gravado pelo TrafficRecorder.
+// formato: cabeçalho (MAGIC, VERSION, instante de início em ms, porta do nó) seguido de registos:
+//   TYPE    código, nome do tipo de mensagem (uma vez por tipo)
+//   OPEN    ligação, instante, "endereço:porta" remoto
+//   MESSAGE instante, ligação, entrada?, código do tipo, bytes no socket, tamanho e conteúdo (só pedidos)
+//   CLOSE   ligação, instante
+// inteiros em varint e instantes em nanossegundos desde o início
+public class TrafficTrace {
+    static final int MAGIC = 0x49534354; // "ISCT"
+    static final int VERSION = 1;
+    static final int TYPE = 1;
+    static final int OPEN = 2;
+    static final int MESSAGE = 3;
+    static final int CLOSE = 4;
+
+    public record Connection(int id, String peer, long openedNanos) {
+    }
+
+    public record Message(long timeNanos, int connection, boolean inbound, String type, long bytes, byte[] payload) {
+        public boolean isReplayable() {
+            return payload != null;
+        }
+
+        // mensagem original (só para pedidos)
+        public Object decode() throws IOException {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+                return in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Tipo de mensagem desconhecido", e);
+            }
+        }
+    }
+
+    private final long startMillis;
+    private final int nodePort;
+    private final Map<Integer, Connection> connections = new LinkedHashMap<>();
+    private final List<Message> messages = new ArrayList<>();
+
+    private TrafficTrace(long startMillis, int nodePort) {
+        this.startMillis = startMillis;
+        this.nodePort = nodePort;
+    }
+
+    // lê o trace todo; um fim abrupto (nó terminado a meio da escrita) fica pelo último registo completo
+    public static TrafficTrace read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Não é um trace IscTorrent: " + file);
+            int version = in.readShort();
+            if (version != VERSION) throw new IOException("Versão de trace não suportada: " + version);
+            TrafficTrace trace = new TrafficTrace(in.readLong(), in.readInt());
+
+            Map<Integer, String> types = new HashMap<>();
+            try {
+                int tag;
+                while ((tag = in.read()) != -1) {
+                    switch (tag) {
+                        case TYPE -> types.put((int) readVarLong(in), in.readUTF());
+                        case OPEN -> {
+                            int id = (int) readVarLong(in);
+                            long time = readVarLong(in);
+                            trace.connections.put(id, new Connection(id, in.readUTF(), time));
+                        }
+                        case MESSAGE -> {
+                            long time = readVarLong(in);
+                            int connection = (int) readVarLong(in);
+                            boolean inbound = in.readBoolean();
+                            String type = types.getOrDefault((int) readVarLong(in), "?");
+                            long bytes = readVarLong(in);
+                            int length = (int) readVarLong(in);
+                            byte[] payload = null;
+                            if (length > 0) {
+                                payload = new byte[length];
+                                in.readFully(payload);
+                            }
+                            trace.messages.add(new Message(time, connection, inbound, type, bytes, payload));
+                        }
+                        case CLOSE -> {
+                            readVarLong(in);
+                            readVarLong(in);
+                        }
+                        default -> throw new IOException("Registo desconhecido no trace: " + tag);
+                    }
+                }
+            } catch (EOFException e) {
+                // último registo incompleto
+            }
+            return trace;
+        }
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Varint inválido no trace");
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public int getNodePort() {
+        return nodePort;
+    }
+
+    public Collection<Connection> getConnections() {
+        return connections.values();
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    // mensagens de uma ligação, pela ordem em que foram gravadas
+    public List<Message> getMessages(int connection) {
+        List<Message> result = new ArrayList<>();
+        for (Message message : messages) {
+            if (message.connection() == connection) result.add(message);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+package pt.iscte.pcd.isctorrent.network;
+
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+
+import java.util.*;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// slots de upload (choking): só UPLOAD_SLOTS nós recebem dados de cada vez, os de maior débito recíproco recente
+// (o que nos enviaram; sem downloads em curso, o que recebem de nós), mais um slot otimista que roda pelos
+// restantes e favorece os recém-chegados; os pedidos dos nós sem slot recebem um ChokeMessage
+public class UploadSlots {
+    private static final int OPTIMISTIC_ROUNDS = 3; // o slot otimista muda a cada 3 reavaliações
+    private static final int NEWCOMER_ROUNDS = 3; // nós recentes contam a triplicar no sorteio otimista
+    private static final int FORGET_ROUNDS = 10; // estado de nós sem pedidos há tanto tempo é descartado
+
+    private static class Peer {
+        long bytesIn = -1; // contadores de tráfego na última reavaliação (-1: ainda não medidos)
+        long bytesOut = -1;
+        double downloadRate; // bytes/s que o nó nos enviou
+        double uploadRate; // bytes/s que lhe enviámos
+        long lastRequest; // nanoTime do último pedido de dados
+        int age; // reavaliações desde que apareceu
+        boolean unchoked;
+    }
+
+    private final IscTorrent torrent;
+    private final Map<String, Peer> peers = new HashMap<>(); // por nodeId
+    private final ScheduledThreadPoolExecutor rechoker;
+    private String optimistic; // nó com o slot otimista
+    private int round = 0;
+    private long lastRechoke = System.nanoTime();
+
+    public UploadSlots(IscTorrent torrent) {
+        this.torrent = torrent;
+        this.rechoker = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "upload-slots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (Constants.UPLOAD_SLOTS > 0) {
+            rechoker.scheduleAtFixedRate(this::rechoke, Constants.RECHOKE_INTERVAL_MS,
+                    Constants.RECHOKE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // chamado antes de servir um pedido de dados: regista o interesse do nó e diz se tem slot (logo,
+    // se houver um livre); sem slot o pedido não é servido e o nó volta a ser considerado na reavaliação
+    public boolean tryAcquire(NodeConnection connection) {
+        String nodeId = connection.getNodeId();
+        if (Constants.UPLOAD_SLOTS <= 0 || nodeId == null) return true;
+
+        synchronized(this) {
+            Peer peer = peers.computeIfAbsent(nodeId, k -> new Peer());
+            peer.lastRequest = System.nanoTime();
+            if (!peer.unchoked && unchokedCount() < Constants.UPLOAD_SLOTS) {
+                // slot regular livre: não espera pela reavaliação; o otimista só é atribuído pelo rechoke
+                peer.unchoked = true;
+            }
+            return peer.unchoked;
+        }
+    }
+
+    private int unchokedCount() {
+        int count = 0;
+        for (Peer peer : peers.values()) {
+            if (peer.unchoked) count++;
+        }
+        return count;
+    }
+
+    // reavaliação periódica: mede o débito de cada nó no período e redistribui os slots
+    private void rechoke() {
+        Map<String, long[]> traffic = torrent.getConnectionManager().getTrafficByNode(); // fora do lock
+        boolean seeding = torrent.getDownloadManager().getActiveDownloadsCount() == 0;
+
+        synchronized(this) {
+            long now = System.nanoTime();
+            double seconds = Math.max(1e-3, (now - lastRechoke) / 1e9);
+            lastRechoke = now;
+            long interestWindow = 2 * Constants.RECHOKE_INTERVAL_MS * 1_000_000;
+
+            List<String> interested = new ArrayList<>();
+            Iterator<Map.Entry<String, Peer>> iterator = peers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Peer> entry = iterator.next();
+                Peer peer = entry.getValue();
+                long[] bytes = traffic.getOrDefault(entry.getKey(), new long[2]);
+                // ligações fechadas baixam os contadores: o período conta como zero
+                peer.downloadRate = peer.bytesIn < 0 ? 0 : Math.max(0, bytes[0] - peer.bytesIn) / seconds;
+                peer.uploadRate = peer.bytesOut < 0 ? 0 : Math.max(0, bytes[1] - peer.bytesOut) / seconds;
+                peer.bytesIn = bytes[0];
+                peer.bytesOut = bytes[1];
+                peer.age++;
+
+                long idle = now - peer.lastRequest;
+                if (idle < interestWindow) {
+                    interested.add(entry.getKey());
+                } else if (idle > FORGET_ROUNDS * Constants.RECHOKE_INTERVAL_MS * 1_000_000) {
+                    iterator.remove();
+                }
+            }
+
+            // a descarregar: retribui a quem nos envia mais; a semear: serve quem descarrega mais depressa
+            interested.sort(Comparator.comparingDouble((String id) -> {
+                Peer peer = peers.get(id);
+                return seeding ? peer.uploadRate : peer.downloadRate;
+            }).thenComparingDouble(id -> peers.get(id).uploadRate).reversed());
+            Set<String> unchoke = new HashSet<>(interested.subList(0, Math.min(Constants.UPLOAD_SLOTS, interested.size())));
+
+            round++;
+            if (optimistic == null || round % OPTIMISTIC_ROUNDS == 0 || !interested.contains(optimistic)
+                    || unchoke.contains(optimistic)) {
+                optimistic = pickOptimistic(interested, unchoke);
+            }
+            if (optimistic != null) unchoke.add(optimistic);
+
+            for (Map.Entry<String, Peer> entry : peers.entrySet()) {
+                entry.getValue().unchoked = unchoke.contains(entry.getKey());
+            }
+        }
+    }
+
+    // sorteio entre os nós interessados sem slot, com peso triplo para os recém-chegados
+    private String pickOptimistic(List<String> interested, Set<String> unchoke) {
+        List<String> candidates = new ArrayList<>();
+        for (String id : interested) {
+            if (unchoke.contains(id)) continue;
+            int weight = peers.get(id).age <= NEWCOMER_ROUNDS ? 3 : 1;
+            for (int i = 0; i < weight; i++) candidates.add(id);
+        }
+        return candidates.isEmpty() ? null : candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+    }
+
+    public synchronized int getUnchokedPeers() {
+        return unchokedCount();
+    }
+
+    // nós com pedidos recentes que estão sem slot
+    public synchronized int getChokedPeers() {
+        long now = System.nanoTime();
+        long interestWindow = 2 * Constants.RECHOKE_INTERVAL_MS * 1_000_000;
+        int count = 0;
+        for (Peer peer : peers.values()) {
+            if (!peer.unchoked && now - peer.lastRequest < interestWindow) count++;
+        }
+        return count;
+    }
+
+    public void shutdown() {
+        rechoker.shutdownNow();
+    }
+}
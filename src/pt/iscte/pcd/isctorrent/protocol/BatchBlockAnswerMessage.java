@@ -0,0 +1,11 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+// dados dos blocos pela ordem do pedido; null quando o nó não tem o bloco
+public record BatchBlockAnswerMessage(List<byte[]> data) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
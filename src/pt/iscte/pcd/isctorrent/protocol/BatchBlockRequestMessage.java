@@ -0,0 +1,11 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+// vários pedidos de bloco, possivelmente de ficheiros diferentes, numa só ida à rede
+public record BatchBlockRequestMessage(List<FileBlockRequestMessage> blocks) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// blocos que o nó tem de um ficheiro; ficheiros completos não levam bitmap
+public record BitfieldMessage(String fileName, int totalBlocks, boolean complete, long[] bits) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
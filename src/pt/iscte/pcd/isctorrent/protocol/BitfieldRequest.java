@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// pedido dos blocos que o nó tem de um ficheiro
+public record BitfieldRequest(String fileName) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
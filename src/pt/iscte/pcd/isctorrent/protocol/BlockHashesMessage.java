@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// SHA-256 de cada bloco do ficheiro, concatenados por ordem (32 bytes por bloco)
+public record BlockHashesMessage(String fileName, byte[] hashes) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
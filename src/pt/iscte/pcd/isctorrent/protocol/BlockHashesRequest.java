@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// pedido dos hashes de conteúdo de todos os blocos de um ficheiro
+public record BlockHashesRequest(String fileName) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
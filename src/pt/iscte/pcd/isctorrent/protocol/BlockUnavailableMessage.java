@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// resposta negativa a um pedido de bloco que o nó não tem
+public record BlockUnavailableMessage(String fileName, long offset) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
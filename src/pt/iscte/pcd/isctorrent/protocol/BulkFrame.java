@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// pedaço de uma mensagem volumosa já serializada; entre frames podem passar mensagens de controlo
+public record BulkFrame(long id, boolean last, byte[] data) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
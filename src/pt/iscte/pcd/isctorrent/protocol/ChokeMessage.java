@@ -0,0 +1,11 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// resposta a um pedido de dados de um nó sem slot de upload: o pedido não foi servido;
+// pode ser pedido a outra fonte ou repetido depois de retryAfterMs
+public record ChokeMessage(String fileName, long retryAfterMs) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
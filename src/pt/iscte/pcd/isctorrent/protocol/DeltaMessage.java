@@ -0,0 +1,17 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+// versão nova de um ficheiro descrita como blocos da cópia antiga e bytes literais, com o digest do resultado
+public record DeltaMessage(String fileName, long fileSize, byte[] digest, List<Op> ops) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // copia blockCount blocos da cópia antiga a partir de firstBlock, ou acrescenta literal se não for null
+    public record Op(int firstBlock, int blockCount, byte[] literal) implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// assinatura da cópia local de um ficheiro: checksum rolante e forte de cada bloco completo
+public record DeltaSignatureMessage(String fileName, int blockSize, int[] weak, long[] strong) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
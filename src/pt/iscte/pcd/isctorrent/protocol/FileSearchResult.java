@@ -3,16 +3,25 @@ package pt.iscte.pcd.isctorrent.protocol;
 import java.io.Serial;
 import java.io.Serializable;
 
-// resultado de pesquisa
+// resultado de pesquisa; nodeId identifica o dono (null nos resultados locais, antes de sair do nó)
 public record FileSearchResult(String fileName, long fileSize, String nodeAddress, int nodePort,
-                               String workingDirectory) implements Serializable {
+                               String workingDirectory, String nodeId) implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
+    public FileSearchResult(String fileName, long fileSize, String nodeAddress, int nodePort, String workingDirectory) {
+        this(fileName, fileSize, nodeAddress, nodePort, workingDirectory, null);
+    }
+
+    // o nó que recebe o resultado do próprio dono conhece o endereço real e a identidade dele
+    public FileSearchResult withNode(String address, String id) {
+        return new FileSearchResult(fileName, fileSize, address, nodePort, workingDirectory, id);
+    }
+
     @Override
     public String toString() {
         return String.format("%s (%d bytes)", // formato básico para debug
                 fileName,
                 fileSize);
     }
-}
\ No newline at end of file
+}
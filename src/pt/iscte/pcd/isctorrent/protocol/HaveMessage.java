@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// atualização incremental: o nó acabou de receber este bloco
+public record HaveMessage(String fileName, int blockIndex) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
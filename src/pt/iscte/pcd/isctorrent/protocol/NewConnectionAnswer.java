@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// resposta ao pedido de ligação: identifica o nó que aceitou
+public record NewConnectionAnswer(String nodeId, int port) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
@@ -3,8 +3,8 @@ package pt.iscte.pcd.isctorrent.protocol;
 import java.io.Serial;
 import java.io.Serializable;
 
-// pedido de ligação inicial
-public record NewConnectionRequest(String address, int port) implements Serializable {
+// pedido de ligação inicial; nodeId identifica o nó independentemente do endereço por onde liga
+public record NewConnectionRequest(String address, int port, String nodeId) implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
-}
\ No newline at end of file
+}
@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// pedido de fluxo de dados adicional, associado à sessão do nó nodeId (address, port)
+public record NewDataStreamRequest(String address, int port, String nodeId) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,89 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// pesquisa avaliada no nó que responde: padrão sobre o nome, filtros de tamanho e extensão e limite de resultados
+public record SearchQuery(String pattern, MatchMode mode, long minSize, long maxSize,
+                          List<String> extensions, int limit) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public enum MatchMode { SUBSTRING, PREFIX, GLOB, REGEX }
+
+    public static final int DEFAULT_LIMIT = 1000; // pesquisas largas não trazem partilhas inteiras
+    public static final int MAX_REGEX_LENGTH = 64; // expressões maiores são recusadas (vêm de outros nós)
+    public static final int MAX_GLOB_LENGTH = 64; // idem para globs
+
+    // pesquisa simples por substring, como a WordSearchMessage
+    public static SearchQuery of(String keyword) {
+        return new SearchQuery(keyword, MatchMode.SUBSTRING, 0, Long.MAX_VALUE, List.of(), Integer.MAX_VALUE);
+    }
+
+    // sintaxe: palavras soltas (substring) ou prefix:, glob:, re:, mais os filtros ext:a,b  min:10K  max:5M  limit:N
+    public static SearchQuery parse(String text) {
+        String pattern = "";
+        MatchMode mode = MatchMode.SUBSTRING;
+        long minSize = 0;
+        long maxSize = Long.MAX_VALUE;
+        List<String> extensions = new ArrayList<>();
+        int limit = DEFAULT_LIMIT;
+        List<String> words = new ArrayList<>();
+
+        for (String token : text.trim().split("\\s+")) {
+            int colon = token.indexOf(':');
+            String key = colon > 0 ? token.substring(0, colon).toLowerCase(Locale.ROOT) : "";
+            String value = colon > 0 ? token.substring(colon + 1) : token;
+            try {
+                switch (key) {
+                    case "prefix" -> { mode = MatchMode.PREFIX; pattern = value; }
+                    case "glob" -> { mode = MatchMode.GLOB; pattern = value; }
+                    case "re" -> { mode = MatchMode.REGEX; pattern = value; }
+                    case "ext" -> {
+                        for (String extension : value.split(",")) {
+                            if (!extension.isBlank()) extensions.add(extension.replaceFirst("^\\.", "").toLowerCase(Locale.ROOT));
+                        }
+                    }
+                    case "min" -> minSize = parseSize(value);
+                    case "max" -> maxSize = parseSize(value);
+                    case "limit" -> limit = Math.max(1, Integer.parseInt(value));
+                    default -> { if (!token.isEmpty()) words.add(token); }
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Valor inválido em " + token);
+            }
+        }
+        if (mode == MatchMode.SUBSTRING) {
+            pattern = String.join(" ", words);
+        }
+        if (mode == MatchMode.GLOB && pattern.length() > MAX_GLOB_LENGTH) {
+            throw new IllegalArgumentException("Glob demasiado longo (máximo " + MAX_GLOB_LENGTH + ")");
+        }
+        if (mode == MatchMode.REGEX) {
+            if (pattern.length() > MAX_REGEX_LENGTH) {
+                throw new IllegalArgumentException("Expressão regular demasiado longa (máximo " + MAX_REGEX_LENGTH + ")");
+            }
+            try {
+                Pattern.compile(pattern); // erro mostrado a quem pesquisa, não aos outros nós
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Expressão regular inválida: " + e.getDescription());
+            }
+        }
+        return new SearchQuery(pattern, mode, minSize, maxSize, List.copyOf(extensions), limit);
+    }
+
+    private static long parseSize(String value) {
+        String number = value.toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (number.endsWith("K")) unit = 1024;
+        else if (number.endsWith("M")) unit = 1024 * 1024;
+        else if (number.endsWith("G")) unit = 1024L * 1024 * 1024;
+        if (unit > 1) number = number.substring(0, number.length() - 1);
+        return Long.parseLong(number) * unit;
+    }
+}
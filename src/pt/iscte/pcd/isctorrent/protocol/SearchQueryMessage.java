@@ -0,0 +1,17 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// pesquisa com identificador; a resposta chega em páginas de até pageSize resultados.
+// ttl é o número de saltos que ainda pode dar e timeoutMs quanto quem a enviou espera pela última página
+public record SearchQueryMessage(long queryId, SearchQuery query, int pageSize, int ttl, long timeoutMs)
+        implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // cópia a reencaminhar: menos um salto e menos tempo, para a resposta chegar antes do timeout de quem pediu
+    public SearchQueryMessage forwarded() {
+        return new SearchQueryMessage(queryId, query, pageSize, ttl - 1, timeoutMs * 3 / 4);
+    }
+}
@@ -0,0 +1,26 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+// página de resultados em forma compacta: o nó vem uma só vez e os ficheiros em vetores paralelos
+public record SearchResultPage(long queryId, String nodeAddress, int nodePort, String nodeId, String[] names,
+                               long[] sizes, boolean last) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // o nó que recebe a página do próprio dono conhece o endereço real dele
+    public SearchResultPage withNodeAddress(String address) {
+        return new SearchResultPage(queryId, address, nodePort, nodeId, names, sizes, last);
+    }
+
+    public List<FileSearchResult> toResults() {
+        List<FileSearchResult> results = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            results.add(new FileSearchResult(names[i], sizes[i], nodeAddress, nodePort, "", nodeId));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// resumo completo (filtro de Bloom) dos nomes partilhados, enviado ao ligar e quando o filtro cresce
+public record ShareSummaryMessage(long[] bits) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,10 @@
+package pt.iscte.pcd.isctorrent.protocol;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+// bits acabados de ligar no resumo de partilhas (bitCount identifica o tamanho do filtro a que se aplicam)
+public record ShareSummaryUpdate(int bitCount, int[] setBits) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,62 @@
+package pt.iscte.pcd.isctorrent.core;
+
+import org.junit.jupiter.api.Test;
+import pt.iscte.pcd.isctorrent.protocol.SearchQuery;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryMatcherTest {
+
+    private static QueryMatcher glob(String pattern) {
+        return new QueryMatcher(new SearchQuery(pattern, SearchQuery.MatchMode.GLOB, 0, Long.MAX_VALUE,
+                List.of(), SearchQuery.DEFAULT_LIMIT));
+    }
+
+    @Test
+    void globMatchesWholeNameIgnoringCase() {
+        QueryMatcher matcher = glob("report-2024-*.pdf");
+        assertTrue(matcher.matches("Report-2024-03.PDF", 10));
+        assertFalse(matcher.matches("old-report-2024-03.pdf", 10));
+        assertFalse(matcher.matches("report-2024-03.pdf.bak", 10));
+    }
+
+    @Test
+    void globSupportsClassesAlternativesAndEscapes() {
+        assertTrue(glob("img_[0-9]?.{jpg,png}").matches("img_42.png", 1));
+        assertFalse(glob("img_[!0-9]?.{jpg,png}").matches("img_42.png", 1));
+        assertTrue(glob("a\\*b.txt").matches("a*b.txt", 1));
+        assertFalse(glob("a\\*b.txt").matches("axxb.txt", 1));
+        assertTrue(glob("(1)+$.dat").matches("(1)+$.dat", 1)); // metacaracteres de regex são literais
+    }
+
+    @Test
+    void invalidGlobMatchesNothing() {
+        assertFalse(glob("[abc").matches("abc", 1));
+        assertFalse(glob("{a,b").matches("a", 1));
+    }
+
+    @Test
+    void pathologicalGlobGivesUpWithinBudget() {
+        QueryMatcher matcher = glob("*a*a*a*a*a*a*a*a*a*a*a*a*c");
+        String name = "a".repeat(56) + ".dat";
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> assertFalse(matcher.matches(name, 1)));
+    }
+
+    @Test
+    void globLongerThanLimitMatchesNothing() {
+        String pattern = "*".repeat(SearchQuery.MAX_GLOB_LENGTH) + "a";
+        assertFalse(glob(pattern).matches("a", 1));
+        assertThrows(IllegalArgumentException.class, () -> SearchQuery.parse("glob:" + pattern));
+    }
+
+    @Test
+    void pathologicalRegexGivesUpWithinBudget() {
+        QueryMatcher matcher = new QueryMatcher(new SearchQuery("(a+)+$", SearchQuery.MatchMode.REGEX, 0,
+                Long.MAX_VALUE, List.of(), SearchQuery.DEFAULT_LIMIT));
+        String name = "a".repeat(40) + "!";
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> assertFalse(matcher.matches(name, 1)));
+    }
+}
@@ -0,0 +1,43 @@
+package pt.iscte.pcd.isctorrent.core;
+
+import org.junit.jupiter.api.Test;
+import pt.iscte.pcd.isctorrent.protocol.SearchQuery;
+import pt.iscte.pcd.isctorrent.protocol.ShareSummaryUpdate;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShareSummaryTest {
+
+    @Test
+    void updateWithOutOfRangePositionIsRejectedWhole() {
+        ShareSummary summary = ShareSummary.of(Map.of("song.mp3", 1000L));
+        ShareSummary other = ShareSummary.of(Map.of());
+        int[] added = other.add("video.mkv", 5000L);
+        int bitCount = summary.getBitCount();
+
+        int[] withNegative = appendTo(added, -1);
+        int[] withOversized = appendTo(added, bitCount);
+        assertThrows(IllegalArgumentException.class, () -> summary.apply(new ShareSummaryUpdate(bitCount, withNegative)));
+        assertThrows(IllegalArgumentException.class, () -> summary.apply(new ShareSummaryUpdate(bitCount, withOversized)));
+        assertThrows(IllegalArgumentException.class, () -> summary.apply(new ShareSummaryUpdate(bitCount, null)));
+        assertFalse(summary.mightMatch(SearchQuery.of("video")), "nenhum bit da atualização recusada foi aplicado");
+
+        assertTrue(summary.apply(new ShareSummaryUpdate(bitCount, added)));
+        assertTrue(summary.mightMatch(SearchQuery.of("video")));
+    }
+
+    @Test
+    void updateForAnotherFilterSizeIsIgnored() {
+        ShareSummary summary = ShareSummary.of(Map.of("song.mp3", 1000L));
+        assertFalse(summary.apply(new ShareSummaryUpdate(summary.getBitCount() * 2, new int[]{0})));
+    }
+
+    private static int[] appendTo(int[] positions, int extra) {
+        int[] result = Arrays.copyOf(positions, positions.length + 1);
+        result[positions.length] = extra;
+        return result;
+    }
+}
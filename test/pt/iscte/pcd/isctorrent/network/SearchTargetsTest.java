@@ -0,0 +1,68 @@
+package pt.iscte.pcd.isctorrent.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pt.iscte.pcd.isctorrent.core.Constants;
+import pt.iscte.pcd.isctorrent.core.IscTorrent;
+import pt.iscte.pcd.isctorrent.protocol.SearchQuery;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// um nó ligado a quatro vizinhos, cada um com ficheiros diferentes: os resumos de partilhas
+// reduzem a quem a pesquisa é enviada no último salto
+class SearchTargetsTest {
+    private static final int LEAVES = 4;
+
+    private final List<IscTorrent> nodes = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        nodes.forEach(IscTorrent::shutdown);
+    }
+
+    @Test
+    void lastHopOnlyReachesPeersWhoseSummaryMightMatch(@TempDir Path dir) throws Exception {
+        IscTorrent hub = start(dir.resolve("hub"));
+        for (int i = 0; i < LEAVES; i++) {
+            Path folder = dir.resolve("leaf" + i);
+            Files.createDirectories(folder);
+            Files.write(folder.resolve((i == 0 ? "alpha-concert" : "beta-notes" + i) + ".mp3"), new byte[1000]);
+            IscTorrent leaf = start(folder);
+            hub.connectToNode(Constants.LOCAL_ADDRESS, leaf.getPort());
+        }
+        ConnectionManager connections = hub.getConnectionManager();
+        SearchQuery query = SearchQuery.of("alpha-concert");
+
+        // os resumos chegam logo a seguir ao handshake
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (connections.getSearchTargets(query, 1).size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(LEAVES, connections.getActiveConnectionsCount());
+        assertEquals(1, connections.getSearchTargets(query, 1).size(), "só o vizinho com o ficheiro no último salto");
+        assertEquals(LEAVES, connections.getSearchTargets(query, 2).size(), "antes do último salto todos reencaminham");
+        assertEquals(LEAVES - 1, connections.getSearchTargets(SearchQuery.of("notes"), 1).size());
+    }
+
+    private IscTorrent start(Path folder) throws IOException {
+        Files.createDirectories(folder);
+        IscTorrent node = new IscTorrent(freePort(), folder.toString());
+        nodes.add(node);
+        return node;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}